@@ -0,0 +1,101 @@
+package com.fernison.springboot.webflux.app;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+import reactor.core.publisher.Mono;
+
+// Borra las colecciones, crea los índices y carga los datos de ejemplo, en ese orden y antes de aceptar peticiones.
+// Es un SmartLifecycle con fase negativa: arranca antes que el registro en Eureka (fase 0) y que el servidor web (Integer.MAX_VALUE - 1),
+// así la instancia no aparece como UP ni recibe tráfico hasta que hay datos. Si la carga falla o no termina a tiempo, falla el arranque
+@Component
+public class CargaInicial implements SmartLifecycle {
+
+	private static final Logger log = LoggerFactory.getLogger(CargaInicial.class);
+
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+
+	@Autowired
+	private IndicesConfig indices;
+
+	@Value("${config.seed.enabled:true}")
+	private boolean activa;
+
+	@Value("${config.seed.timeout:60s}")
+	private Duration timeout;
+
+	private volatile boolean arrancada;
+
+	@Override
+	public void start() {
+		if (activa) {
+			long inicio = System.nanoTime();
+			cargar().block(timeout);
+			log.info("Carga inicial terminada en {} ms", Duration.ofNanos(System.nanoTime() - inicio).toMillis());
+		}
+		arrancada = true;
+	}
+
+	@Override
+	public void stop() {
+		arrancada = false;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return arrancada;
+	}
+
+	@Override
+	public int getPhase() {
+		return -100;
+	}
+
+	private Mono<Void> cargar() {
+		Categoria c1 = new Categoria("C1");
+		Categoria c2 = new Categoria("C2");
+		Categoria c3 = new Categoria("C3");
+		Categoria c4 = new Categoria("C4");
+		List<Categoria> categorias = Arrays.asList(c1, c2, c3, c4);
+		List<Producto> productos = Arrays.asList(
+				new Producto("tv 1", 111.89, c1),
+				new Producto("tv 2", 222.89, c2),
+				new Producto("tv 3", 333.89, c3),
+				new Producto("tv 4", 444.89, c4),
+				new Producto("tv 5", 555.89, c1),
+				new Producto("tv 6", 666.89, c4));
+		productos.forEach(producto -> producto.setCreateAt(new Date()));
+
+		// Cada paso empieza cuando termina el anterior. Los borrados son independientes entre sí y van a la vez
+		return paso("borrado de colecciones", Mono.when(
+					mongoTemplate.dropCollection("productos"),
+					mongoTemplate.dropCollection("categorias"),
+					mongoTemplate.dropCollection("fotos"))) // Contadores de referencias de las fotos: ya no hay productos que las usen
+			.then(paso("índices", indices.crearIndices())) // Los índices se crean después de borrar las colecciones, si no se perderían
+			// Un insertMany por colección. Las categorías primero: el insert les asigna el id que se guarda dentro de cada producto
+			.then(paso("categorías (" + categorias.size() + ")", mongoTemplate.insertAll(categorias).then()))
+			.then(paso("productos (" + productos.size() + ")", mongoTemplate.insertAll(productos).then()));
+	}
+
+	private Mono<Void> paso(String nombre, Mono<Void> paso) {
+		return Mono.defer(() -> {
+			long inicio = System.nanoTime();
+			return paso.doOnSuccess(v -> log.info("Carga inicial: {} en {} ms", nombre, Duration.ofNanos(System.nanoTime() - inicio).toMillis()));
+		});
+	}
+
+}
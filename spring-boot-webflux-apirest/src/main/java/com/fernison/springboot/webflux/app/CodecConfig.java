@@ -0,0 +1,60 @@
+package com.fernison.springboot.webflux.app;
+
+import java.util.Arrays;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.multipart.MultipartHttpMessageReader;
+import org.springframework.http.codec.multipart.SynchronossPartHttpMessageReader;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Configuration
+public class CodecConfig {
+
+	// Spring 5.2 no trae la constante de NDJSON (aparece en 5.3). Hasta entonces la definimos aquí
+	public static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+	
+	// Registra application/x-ndjson en los codecs de Jackson como tipo "streaming": cada elemento del Flux se escribe 
+	// seguido de un salto de línea y se hace flush, en lugar de construir un único array JSON con toda la respuesta
+	@Bean
+	public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper mapper) {
+		return configurer -> {
+			Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(mapper, 
+					MediaType.APPLICATION_JSON, MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON, new MediaType("application", "*+json"));
+			encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON));
+			configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+			configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(mapper, 
+					MediaType.APPLICATION_JSON, MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON, new MediaType("application", "*+json")));
+		};
+	}
+	
+	// Lector de multipart con límites. En Spring 5.2 es el de Synchronoss, que recibe cada part entero antes de entregarlo (en memoria
+	// hasta max-in-memory-size y a partir de ahí en un fichero temporal), así que el tamaño se tiene que limitar aquí: un part mayor
+	// que config.uploads.max-size corta la lectura con DataBufferLimitException, aunque la petición no traiga Content-Length.
+	// Se registra como lector de Part (toParts) y, envuelto, como el de MultiValueMap (multipartData y @RequestPart)
+	@Bean
+	public CodecCustomizer multipartCodecCustomizer(@Value("${config.uploads.max-size:10MB}") DataSize tamanioMaximo,
+			@Value("${config.uploads.max-in-memory-size:256KB}") DataSize enMemoria,
+			@Value("${config.uploads.max-parts:16}") int maxParts) {
+		return configurer -> {
+			if (!(configurer instanceof ServerCodecConfigurer)) {
+				return; // Los codecs de WebClient también pasan por los CodecCustomizer
+			}
+			SynchronossPartHttpMessageReader partReader = new SynchronossPartHttpMessageReader();
+			partReader.setMaxDiskUsagePerPart(tamanioMaximo.toBytes());
+			partReader.setMaxInMemorySize((int) enMemoria.toBytes());
+			partReader.setMaxParts(maxParts);
+			configurer.customCodecs().register(partReader); // Los lectores propios van antes que los de por defecto
+			((ServerCodecConfigurer) configurer).defaultCodecs().multipartReader(new MultipartHttpMessageReader(partReader)); // Sustituye al de por defecto y a su lector de Part
+		};
+	}
+	
+}
@@ -0,0 +1,47 @@
+package com.fernison.springboot.webflux.app;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.stereotype.Component;
+
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Crea los índices de las colecciones. Spring Boot 2.3 ya no los crea solo a partir de las anotaciones (auto-index-creation=false)
+// y, además, hay que volver a crearlos cada vez que se borra la colección al arrancar
+@Component
+public class IndicesConfig {
+
+	private static final Logger log = LoggerFactory.getLogger(IndicesConfig.class);
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+	
+	public Mono<Void> crearIndices() {
+		IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+		ReactiveIndexOperations productos = mongoTemplate.indexOps(Producto.class);
+		// Los índices de Producto salen de sus anotaciones (@Indexed y @CompoundIndex)
+		Flux<String> indicesProducto = Flux.<IndexDefinition>fromIterable(resolver.resolveIndexFor(Producto.class))
+				.concatMap(productos::ensureIndex);
+		// El de Categoria se declara aquí y no con @Indexed porque Categoria va embebida en Producto y el resolver crearía 
+		// también un índice único sobre "categoria.nombre" en productos, que impediría tener dos productos de la misma categoría
+		Mono<String> indiceCategoria = mongoTemplate.indexOps(Categoria.class)
+				.ensureIndex(new Index().on("nombre", Sort.Direction.ASC).unique());
+		return indicesProducto
+				.concatWith(indiceCategoria)
+				.doOnNext(indice -> log.info("Indice creado: " + indice))
+				.then();
+	}
+	
+}
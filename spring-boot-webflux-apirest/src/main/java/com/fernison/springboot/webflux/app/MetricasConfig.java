@@ -0,0 +1,88 @@
+package com.fernison.springboot.webflux.app;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import com.fernison.springboot.webflux.comun.cache.CacheReactiva;
+import com.fernison.springboot.webflux.comun.repositorios.InterceptorRepositorio;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+@Configuration
+public class MetricasConfig {
+
+	// Tiempo de cada operación de Mongo por repositorio y método (mongo.operaciones). Se mide desde la suscripción hasta el último
+	// elemento, que es cuando Mongo ha terminado de devolver el cursor. Las llamadas que no devuelven Mono/Flux no se miden
+	@Bean
+	public InterceptorRepositorio metricasRepositorios(ObjectProvider<MeterRegistry> registry) {
+		return (repositorio, invocacion, resultado) -> {
+			String metodo = invocacion.getMethod().getName();
+			if (resultado instanceof Mono) {
+				Mono<?> mono = (Mono<?>) resultado;
+				return Mono.defer(() -> {
+					Timer.Sample muestra = Timer.start(registry.getObject());
+					return mono.doFinally(senial -> parar(registry.getObject(), muestra, repositorio, metodo, senial));
+				});
+			}
+			if (resultado instanceof Flux) {
+				Flux<?> flux = (Flux<?>) resultado;
+				return Flux.defer(() -> {
+					Timer.Sample muestra = Timer.start(registry.getObject());
+					return flux.doFinally(senial -> parar(registry.getObject(), muestra, repositorio, metodo, senial));
+				});
+			}
+			return resultado;
+		};
+	}
+
+	// Estadísticas de las caches en memoria del servicio: aciertos, fallos, expulsiones y tamaño
+	@Bean
+	public MeterBinder metricasCaches(ProductoService service) {
+		return registry -> {
+			for (CacheReactiva<?, ?> cache : service.getCaches()) {
+				FunctionCounter.builder("cache.gets", cache, c -> c.getEstadisticas().hitCount())
+						.tags("cache", cache.getNombre(), "result", "hit")
+						.register(registry);
+				FunctionCounter.builder("cache.gets", cache, c -> c.getEstadisticas().missCount())
+						.tags("cache", cache.getNombre(), "result", "miss")
+						.register(registry);
+				FunctionCounter.builder("cache.evictions", cache, c -> c.getEstadisticas().evictionCount())
+						.tags("cache", cache.getNombre())
+						.register(registry);
+				Gauge.builder("cache.size", cache, CacheReactiva::getTamanio)
+						.tags("cache", cache.getNombre())
+						.register(registry);
+			}
+		};
+	}
+
+	private static void parar(MeterRegistry registry, Timer.Sample muestra, String repositorio, String metodo, SignalType senial) {
+		muestra.stop(Timer.builder("mongo.operaciones")
+				.description("Tiempo de las operaciones de Mongo por repositorio y método")
+				.tags("repositorio", repositorio, "metodo", metodo, "resultado", resultado(senial))
+				.publishPercentileHistogram()
+				.register(registry));
+	}
+
+	private static String resultado(SignalType senial) {
+		switch (senial) {
+		case ON_COMPLETE:
+			return "ok";
+		case ON_ERROR:
+			return "error";
+		default:
+			return "cancelada"; // Por ejemplo un next() que no lee el resto del cursor
+		}
+	}
+
+}
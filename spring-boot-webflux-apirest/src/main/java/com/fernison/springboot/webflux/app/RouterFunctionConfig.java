@@ -1,10 +1,11 @@
 package com.fernison.springboot.webflux.app;
 
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
+import org.springframework.boot.web.reactive.context.ReactiveWebApplicationContext;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.http.MediaType;
 import static org.springframework.web.reactive.function.server.RequestPredicates.*;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import org.springframework.web.reactive.function.server.ServerResponse;
@@ -12,18 +13,25 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import com.fernison.springboot.webflux.app.handler.ProductoHandler;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
 import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import com.fernison.springboot.webflux.comun.metricas.MetricasRutas;
 
-@Configuration
-public class RouterFunctionConfig {
+// Configura las rutas de los handlers reactivos.
+// Se registran de forma funcional (registerBean con un Supplier) en lugar de con @Configuration y @Bean: al arrancar no hay que procesar
+// anotaciones ni crear el proxy CGLIB de la clase de configuración. Spring Boot lo aplica desde META-INF/spring.factories
+public class RouterFunctionConfig implements ApplicationContextInitializer<GenericApplicationContext> {
 	
-	// Configura las rutas de los handlers reactivos
-	
-	@Autowired
-	private ProductoService service;
+	@Override
+	public void initialize(GenericApplicationContext context) {
+		if (!(context instanceof ReactiveWebApplicationContext)) {
+			return; // El contexto de bootstrap de Spring Cloud también pasa por aquí
+		}
+		context.registerBean("routesV2a", RouterFunction.class, () -> routes(context.getBean(ProductoService.class)));
+		// MetricasRutas: latencia, peticiones en curso y errores de cada ruta
+		context.registerBean("routes", RouterFunction.class, () -> routes(context.getBean(ProductoHandler.class), context.getBean(MetricasRutas.class)));
+	}
 	
 	// Ejemplo de ruta con el handler incluido
-	@Bean
-	public RouterFunction<ServerResponse> routes() {	
+	public RouterFunction<ServerResponse> routes(ProductoService service) {	
 		return route(GET("/api/v2a/productos").or(GET("/api/v3a/productos")), request -> {
 			return ServerResponse.ok()
 					.contentType(MediaType.APPLICATION_JSON)
@@ -32,15 +40,27 @@ public class RouterFunctionConfig {
 	}
 
 	// Ejemplo de ruta con handler en otra clase
-	@Bean
-	public RouterFunction<ServerResponse> routes(ProductoHandler handler) {	
-		return route(GET("/api/v2/productos"),handler::listar)
-			.andRoute(GET("/api/v2/productos/{id}").and(contentType(MediaType.APPLICATION_JSON)), handler::ver) // El and indica que el contenttype tiene que ser JSON. Si no, da error
-			.andRoute(POST("/api/v2/productos"), handler::crear)
-			.andRoute(PUT("/api/v2/productos/{id}"), handler::editar)
-			.andRoute(DELETE("/api/v2/productos/{id}"), handler::eliminar)
-			.andRoute(POST("/api/v2/productos/upload/{id}"), handler::upload)
-			.andRoute(POST("/api/v2/productos/crear-con-foto"), handler::crearConFoto);
+	public RouterFunction<ServerResponse> routes(ProductoHandler handler, MetricasRutas metricas) {	
+		return route(GET("/api/v2/productos").and(acceptExplicito(CodecConfig.APPLICATION_NDJSON).or(acceptExplicito(MediaType.APPLICATION_STREAM_JSON))), metricas.medir("listarStream", handler::listarStream))
+			.andRoute(GET("/api/v2/productos").and(acceptExplicito(MediaType.TEXT_EVENT_STREAM)), metricas.medir("listarEventos", handler::listarEventos))
+			.andRoute(GET("/api/v2/productos"), metricas.medir("listar", handler::listar))
+			.andRoute(GET("/api/v2/productos/pagina"), metricas.medir("listarPaginado", handler::listarPaginado)) // Antes que la ruta con {id} para que no la capture
+			.andRoute(GET("/api/v2/productos/{id}").and(contentType(MediaType.APPLICATION_JSON)), metricas.medir("ver", handler::ver)) // El and indica que el contenttype tiene que ser JSON. Si no, da error
+			.andRoute(POST("/api/v2/productos"), metricas.medir("crear", handler::crear))
+			.andRoute(POST("/api/v2/productos/bulk"), metricas.medir("bulk", handler::bulk))
+			.andRoute(POST("/api/v2/productos/batch-get"), metricas.medir("batchGet", handler::batchGet))
+			.andRoute(PUT("/api/v2/productos/{id}"), metricas.medir("editar", handler::editar))
+			.andRoute(DELETE("/api/v2/productos/{id}"), metricas.medir("eliminar", handler::eliminar))
+			.andRoute(POST("/api/v2/productos/upload/{id}"), metricas.medir("upload", handler::upload))
+			.andRoute(POST("/api/v2/productos/crear-con-foto"), metricas.medir("crearConFoto", handler::crearConFoto))
+			.andRoute(GET("/api/v2/cache/estadisticas"), metricas.medir("estadisticasCache", handler::estadisticasCache));
+	}
+	
+	// A diferencia de accept(...), no casa con "*/*" ni con peticiones sin cabecera Accept, así que los clientes que no piden 
+	// streaming de forma explícita siguen recibiendo el array JSON de siempre
+	private static RequestPredicate acceptExplicito(MediaType tipo) {
+		return request -> request.headers().accept().stream()
+				.anyMatch(aceptado -> aceptado.isConcrete() && aceptado.isCompatibleWith(tipo));
 	}
 
 }
@@ -1,89 +1,26 @@
 package com.fernison.springboot.webflux.app;
 
-import java.util.Date;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
-
-import com.fernison.springboot.webflux.app.models.documents.Categoria;
-import com.fernison.springboot.webflux.app.models.documents.Producto;
-import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import org.springframework.context.ConfigurableApplicationContext;
 
-import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
 
 @EnableEurekaClient
-@SpringBootApplication
-public class SpringBootWebfluxApirestApplication implements CommandLineRunner {
+@SpringBootApplication(scanBasePackages = {"com.fernison.springboot.webflux.app", "com.fernison.springboot.webflux.comun"}) // comun: código compartido (ver pom.xml)
+public class SpringBootWebfluxApirestApplication {
 
-	@Autowired
-	private ProductoService service;
-	
-	@Autowired
-	private ReactiveMongoTemplate mongoTemplate;
-	
-	private static final Logger log = LoggerFactory.getLogger(SpringBootWebfluxApirestApplication.class);
+	// Los datos de ejemplo los carga CargaInicial antes de que arranque el servidor web y se registre en Eureka
 	
 	public static void main(String[] args) {
-		SpringApplication.run(SpringBootWebfluxApirestApplication.class, args);
-	}
-
-	@Override
-	public void run(String... args) throws Exception {
-		mongoTemplate.dropCollection("productos").subscribe(); // Borra toda la collection
-		mongoTemplate.dropCollection("categorias").subscribe(); // Borra toda la collection
-		Categoria c1 = new Categoria("C1");
-		Categoria c2 = new Categoria("C2");
-		Categoria c3 = new Categoria("C3");
-		Categoria c4 = new Categoria("C4");
-
-		Flux.just(
-				c1, c2, c3, c4				
-				)
-			.flatMap(categoria -> {
-				return service.saveCategoria(categoria);				
-			})
-			.doOnNext(categoria -> log.info("Insert: " +categoria.toString()))
-			.thenMany( // Esto se usa para deviolver un Flux, en este caso, el Flux de productos. De esta forma creamos todo de una vez y en orden y solo hay un subscribe
-					Flux.just(
-							new Producto("tv 1", 111.89, c1),
-							new Producto("tv 2", 222.89, c2),
-							new Producto("tv 3", 333.89, c3),
-							new Producto("tv 4", 444.89, c4),
-							new Producto("tv 5", 555.89, c1),
-							new Producto("tv 6", 666.89, c4)				
-							)
-						//.map(producto -> dao.save(producto))
-						.flatMap(producto -> {
-							producto.setCreateAt(new Date());
-							return service.save(producto);				
-						}) 
-						.doOnNext(producto -> log.info("Insert: " + producto))
-					)
-			.subscribe();
-		
-//		Flux.just(
-//				new Producto("tv 1", 111.89),
-//				new Producto("tv 2", 222.89),
-//				new Producto("tv 3", 333.89),
-//				new Producto("tv 4", 444.89),
-//				new Producto("tv 5", 555.89),
-//				new Producto("tv 6", 666.89)				
-//				)
-//			//.map(producto -> dao.save(producto))
-//			.flatMap(producto -> {
-//				producto.setCreateAt(new Date());
-//				return service.save(producto);				
-//			}) // Usamos flatMap porque, devuelve Producto (lo aplana). Si usaramos map devolvería un Mono<Producto>
-//				// FlatMap applies a function to each emitted element, but this function returns the type of the Observable. En este caso Producto
-//			.subscribe(producto -> log.info("Insert: " + producto));
-		
+		Schedulers.enableMetrics(); // Métricas de los executors de los schedulers de Reactor (tareas, cola, hilos activos). Antes de que se cree ninguno
+		ConfigurableApplicationContext contexto = SpringApplication.run(SpringBootWebfluxApirestApplication.class, args);
+		// Ejecución de entrenamiento del perfil de Maven "cds": termina en cuanto ha arrancado y la JVM vuelca la lista de clases cargadas
+		if (contexto.getEnvironment().getProperty("config.startup.exit-after-start", Boolean.class, false)) {
+			System.exit(SpringApplication.exit(contexto));
+		}
 	}
 
 }
\ No newline at end of file
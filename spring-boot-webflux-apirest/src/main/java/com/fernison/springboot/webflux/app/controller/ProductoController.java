@@ -1,11 +1,10 @@
 package com.fernison.springboot.webflux.app.controller;
 
-import java.io.File;
 import java.net.URI;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 import javax.validation.Valid;
 
@@ -13,23 +12,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.support.WebExchangeBindException;
 
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.app.models.services.FotoService;
 import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import com.fernison.springboot.webflux.app.util.ETagUtils;
+import com.fernison.springboot.webflux.app.util.MultipartUtils;
+import com.fernison.springboot.webflux.app.util.PaginacionUtils;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -43,8 +51,14 @@ public class ProductoController {
 	@Autowired
 	private ProductoService service;
 	
-	@Value("${config.uploads.path}")
-	private String path;
+	@Autowired
+	private FotoService fotoService;
+	
+	@Value("${config.pagination.default-size:20}")
+	private int tamanioPorDefecto;
+	
+	@Value("${config.pagination.max-size:100}")
+	private int tamanioMaximo;
 	
 	@GetMapping
 	public Flux<Producto> listaRetornandoFlux() {
@@ -60,6 +74,31 @@ public class ProductoController {
 			);
 	}
 	
+	// Listado paginado por cursor. El cursor de la siguiente página se devuelve en las cabeceras X-Next-Cursor y Link
+	@GetMapping("/pagina")
+	public Mono<ResponseEntity<List<Producto>>> listaPaginada(@RequestParam(required = false) String cursor, @RequestParam(required = false) Integer size) {
+		String despuesDeId;
+		try {
+			despuesDeId = cursor == null ? null : PaginacionUtils.decodificarCursor(cursor);
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+		int tamanio = PaginacionUtils.tamanioPagina(size, tamanioPorDefecto, tamanioMaximo);
+		return service.findPagina(despuesDeId, tamanio + 1) // Un elemento de más para saber si hay página siguiente
+				.collectList()
+				.map(productos -> {
+					if (productos.size() <= tamanio) {
+						return ResponseEntity.ok().body(productos);
+					}
+					List<Producto> pagina = productos.subList(0, tamanio);
+					String siguiente = PaginacionUtils.codificarCursor(pagina.get(tamanio - 1).getId());
+					return ResponseEntity.ok()
+							.header(PaginacionUtils.HEADER_NEXT_CURSOR, siguiente)
+							.header("Link", PaginacionUtils.linkNext("/api/productos/pagina", siguiente, tamanio))
+							.body(pagina);
+				});
+	}
+	
 	@GetMapping("/{id}")
 	public Mono<ResponseEntity<Producto>> ver(@PathVariable String id) {
 		return service.findById(id)
@@ -87,7 +126,7 @@ public class ProductoController {
 				if (producto.getCreateAt() == null) {
 					producto.setCreateAt(new Date());
 				}
-				return service.save(producto)
+				return service.insert(producto)
 						.map(p -> {
 							respuesta.put("producto", p);
 							respuesta.put("mensaje", "Producto creado con exito");
@@ -96,6 +135,12 @@ public class ProductoController {
 							.contentType(MediaType.APPLICATION_JSON)
 							.body(respuesta);
 							
+						})
+						.onErrorResume(DuplicateKeyException.class, e -> {
+							respuesta.put("errors", "Producto ya existe");
+							respuesta.put("status", HttpStatus.OK.value());
+							respuesta.put("timestamp", new Date());
+							return Mono.just(ResponseEntity.badRequest().body(respuesta));
 						});
 			})
 			.onErrorResume(t -> {
@@ -121,68 +166,50 @@ public class ProductoController {
 		// Si se pone el @Valid es mejor que el parámetro sea un Publisher así si hay algún error lo podemos capturar con el onError
 		Map<String, Object> respuesta = new HashMap<String, Object>();
 		
-		// Crea y comprueba con @Valid pero no conprueba si ya existe
-		//return internal_crear(monoProducto, respuesta);
-		
-		// Comprueba que no exista ya, da de alta, y valida con @Valid
-		return monoProducto
-				.flatMap(pr1 -> {	
-					// Esto validaría manualmente y sin usar @Valid (da error si se usa)
-//					if (pr1 == null || pr1.getNombre() == null) {
-//						respuesta.put("errors", "Faltan parámetros en la petición");
-//						respuesta.put("status", HttpStatus.BAD_REQUEST.value());
-//						respuesta.put("timestamp", new Date());
-//						return Mono.just(ResponseEntity.badRequest().body(respuesta));
-//					}
-					return service.findByNombre(pr1.getNombre())
-						.flatMap(p_exists -> {
-							log.info(p_exists.toString());
-							respuesta.put("errors", "Producto ya existe");
-							respuesta.put("status", HttpStatus.OK.value());
-							respuesta.put("timestamp", new Date());
-							return Mono.just(ResponseEntity.badRequest().body(respuesta));
-						})
-						.switchIfEmpty(internal_crear(Mono.just(pr1), respuesta));
-				})
-				.onErrorResume(t -> {
-					return Mono.just(t).cast(WebExchangeBindException.class) // Instancia un error de tipo WebExchangeBindException
-							.flatMap(e -> Mono.just(e.getFieldErrors())) // Convierte a un Mono<FieldErrors>
-							.flatMapMany(errors -> Flux.fromIterable(errors)) // Para poder trabajar con cada campo de los field errors hay que pasarlo a Flux
-							.map(fieldError -> "El campo " + fieldError.getField() + " " + fieldError.getDefaultMessage()) // Se trata la lista y se pasa a String por cada elemento de la lista
-							.collectList() // Pasa de Flux a Mono para poder retornarlo
-							.flatMap(list -> { // Devuelve la respuesra
-								respuesta.put("errors", list);
-								respuesta.put("status", HttpStatus.BAD_REQUEST.value());
-								respuesta.put("timestamp", new Date());
-								return Mono.just(ResponseEntity.badRequest().body(respuesta));
-							});
-				});	
-
+		// Crea y valida con @Valid. No hace falta buscar antes por nombre: el índice único de "nombre" rechaza el insert si ya 
+		// existe y el error de clave duplicada se traduce a la respuesta de "Producto ya existe". Una sola ida a Mongo y sin carreras
+		return internal_crear(monoProducto, respuesta);
 	}
 	
 	// Este método crea el producto y sube la foto a la vez. No se puede enviar la informacion en JSON ya que es necesario usar un body de tipo form-data en la petición.
-	// Por tanto, no se puede usar la anotación @RequestBody
+	// Con @RequestBody Flux<Part> los parts llegan de uno en uno, igual que en ProductoHandler.crearConFoto, en vez de leer todo el
+	// formulario antes de llamar al método (que es lo que hacen @RequestPart o el binding del Producto)
 	@PostMapping("/v2")
-	public Mono<ResponseEntity<Producto>> crearConFoto(Producto producto, @RequestPart FilePart file) {
-		if (producto.getCreateAt() == null) {
-			producto.setCreateAt(new Date());
+	public Mono<ResponseEntity<Object>> crearConFoto(@RequestBody Flux<Part> parts, @RequestHeader HttpHeaders headers) {
+		if (MultipartUtils.superaTamanio(headers.getContentLength(), fotoService.getTamanioMaximo())) {
+			return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build());
 		}
-		producto.setFoto(UUID.randomUUID().toString() + "-" + file.filename()
-		.replace(" ", "")
-		.replace(":", "")
-		.replace("\\", ""));
-		return file.transferTo(new File(path + producto.getFoto())).then(service.save(producto))
+		Map<String, String> campos = new HashMap<String, String>();
+		return MultipartUtils.leer(parts, "file", campos, fotoService::guardar) // Escribe la foto en streaming y valida tipo y tamaño
+			.flatMap(foto -> {
+				Categoria categoria = new Categoria(campos.get("categoria.nombre"));
+				categoria.setId(campos.get("categoria.id"));
+				Producto producto = new Producto(campos.get("nombre"), Double.parseDouble(campos.get("precio")), categoria);
+				producto.setFoto(foto.getNombre());
+				producto.setMiniaturas(foto.getMiniaturas());
+				producto.setCreateAt(new Date());
+				return service.save(producto)
+					.onErrorResume(e -> fotoService.liberar(foto.getNombre()).then(Mono.error(e))); // Nadie va a usar la referencia que ha sumado guardar
+			})
 			.map(p -> ResponseEntity.ok()
 				.contentType(MediaType.APPLICATION_JSON)
-				.body(p))
-			.defaultIfEmpty(ResponseEntity.notFound().build()); // Si no existe el producto devuelve un 404	
-	
+				.body((Object) p))
+			.defaultIfEmpty(sinFichero())
+			.onErrorResume(e -> limiteMultipart(e));
 	}
 	
+	// Como en ProductoHandler.editar: se parte de una copia recién leída de Mongo y, si el cliente dice sobre qué versión ha trabajado 
+	// (If-Match o version en el cuerpo) y ya no es la actual, se responde 409
 	@PutMapping("/{id}")
-	public Mono<ResponseEntity<Producto>> editar(@RequestBody Producto producto, @PathVariable String id) {
-		return service.findById(id)
+	public Mono<ResponseEntity<Object>> editar(@RequestBody Producto producto, @PathVariable String id, 
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+		Long versionIfMatch = ETagUtils.versionIfMatch(ifMatch, id);
+		Long versionCliente = versionIfMatch != null ? versionIfMatch : producto.getVersion();
+		return service.findByIdSinCache(id)
 				.flatMap(p -> {
+					if (versionCliente != null && !versionCliente.equals(p.getVersion())) {
+						return Mono.error(new OptimisticLockingFailureException("El producto " + id + " está en la versión " + p.getVersion()));
+					}
 					p.setNombre(producto.getNombre());
 					p.setPrecio(producto.getPrecio());
 					p.setCreateAt(producto.getCreateAt());
@@ -191,7 +218,12 @@ public class ProductoController {
 				})
 				.map(p -> ResponseEntity.created(URI.create("/api/productos/".concat(p.getId())))
 						.contentType(MediaType.APPLICATION_JSON)
-						.body(p))
+						.eTag(ETagUtils.etag(p))
+						.body((Object) p))
+				.onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(productoCambiado()))
+				.onErrorResume(DuplicateKeyException.class, e -> Mono.just(ResponseEntity.status(HttpStatus.CONFLICT) // El nombre nuevo ya lo tiene otro producto (índice único)
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(error("Producto ya existe", HttpStatus.CONFLICT))))
 				.defaultIfEmpty(ResponseEntity.notFound().build()); // Si no existe el producto devuelve un 404	
 	}
 	
@@ -199,34 +231,74 @@ public class ProductoController {
 	public Mono<ResponseEntity<Void>> eliminar(@PathVariable String id) {
 		// El método devuelve Void (al igual que service.delete). Por tanto, despues de service.delete hay que indicar como es la respuesta ya que si lo hacemos con map, siempre estaría vacío ya que la 
 		// respuesta es Void, y no haría ningún tratamiento.
-		return service.findById(id)
+		return service.findByIdSinCache(id) // Copia recién leída: con la de la cache @Version podría rechazar el borrado
 				.flatMap(p -> {
 					return service.delete(p).then(Mono.just(new ResponseEntity<Void>(HttpStatus.NO_CONTENT))); // Se borra y se devuelve un no content
 				})
+				.onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(new ResponseEntity<Void>(HttpStatus.CONFLICT)))
 				.defaultIfEmpty(new ResponseEntity<Void>(HttpStatus.NOT_FOUND)); // Si no existe el producto devuelve un 404
 		
 	}
 	
 	@PostMapping("/upload/{id}")
-	public Mono<ResponseEntity<Producto>> upload(@PathVariable String id, @RequestPart FilePart file) { // "file" es también como se tiene que llamar el parámetro en la petición
-		return service.findById(id)
+	public Mono<ResponseEntity<Object>> upload(@PathVariable String id, @RequestBody Flux<Part> parts, @RequestHeader HttpHeaders headers) {
+		if (MultipartUtils.superaTamanio(headers.getContentLength(), fotoService.getTamanioMaximo())) {
+			return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build());
+		}
+		return service.findByIdSinCache(id) // Copia recién leída: con la de la cache @Version podría rechazar el guardado
 			.flatMap(p -> {
-//				if (!file.filename().isEmpty()) {
-					p.setFoto(UUID.randomUUID().toString() + "-" + file.filename()
-					.replace(" ", "")
-					.replace(":", "")
-					.replace("\\", ""));
-//				}
-				return file.transferTo(new File(path + p.getFoto())).then(service.save(p));							
+				return MultipartUtils.leer(parts, "file", new HashMap<String, String>(), fotoService::guardar) // "file" es como se tiene que llamar el part en la petición
+					.flatMap(foto -> {
+						String anterior = p.getFoto();
+						p.setFoto(foto.getNombre());
+						p.setMiniaturas(foto.getMiniaturas());
+						return service.save(p)
+							.onErrorResume(e -> fotoService.liberar(foto.getNombre()).then(Mono.error(e))) // Nadie va a usar la referencia que ha sumado guardar
+							.flatMap(pdb -> fotoService.liberar(anterior).thenReturn(pdb)); // La foto que tenía antes pierde una referencia
+					})
+					.map(pdb -> ResponseEntity.ok()
+							.contentType(MediaType.APPLICATION_JSON)
+							.body((Object) pdb))
+					.defaultIfEmpty(sinFichero());
 			})
-			.map(p -> ResponseEntity.ok()
-					.contentType(MediaType.APPLICATION_JSON)
-					.body(p))
+			.onErrorResume(OptimisticLockingFailureException.class, e -> Mono.just(productoCambiado()))
+			.onErrorResume(e -> limiteMultipart(e))
 			.defaultIfEmpty(ResponseEntity.notFound().build()); // Si no existe el producto devuelve un 404	
-		
-		
-		
 	}
 	
+	private static ResponseEntity<Object> sinFichero() {
+		return ResponseEntity.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(error("Falta el fichero (part \"file\")", HttpStatus.BAD_REQUEST));
+	}
+	
+	// Límites del lector de multipart (CodecConfig), como en ProductoHandler. El resto de errores se propagan
+	private static Mono<ResponseEntity<Object>> limiteMultipart(Throwable e) {
+		HttpStatus status = MultipartUtils.status(e);
+		if (status == HttpStatus.PAYLOAD_TOO_LARGE) {
+			return Mono.just(ResponseEntity.status(status).build());
+		}
+		if (status != null) {
+			return Mono.just(ResponseEntity.status(status)
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(error(e.getMessage(), status)));
+		}
+		return Mono.error(e);
+	}
+	
+	// Otro guardado se ha adelantado o el cliente ha trabajado sobre una versión antigua
+	private static ResponseEntity<Object> productoCambiado() {
+		return ResponseEntity.status(HttpStatus.CONFLICT)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(error("El producto ha cambiado en otra petición", HttpStatus.CONFLICT));
+	}
+	
+	private static Map<String, Object> error(String mensaje, HttpStatus status) {
+		Map<String, Object> respuesta = new HashMap<String, Object>();
+		respuesta.put("errors", mensaje);
+		respuesta.put("status", status.value());
+		respuesta.put("timestamp", new Date());
+		return respuesta;
+	}
 	
 }
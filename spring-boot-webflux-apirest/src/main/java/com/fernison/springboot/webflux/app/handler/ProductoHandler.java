@@ -2,36 +2,49 @@ package com.fernison.springboot.webflux.app.handler;
 
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
-import java.io.File;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.codec.multipart.FilePart;
-import org.springframework.http.codec.multipart.FormFieldPart;
-import org.springframework.http.codec.multipart.Part;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.util.MultiValueMap;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
 import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.reactive.function.BodyExtractors;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import com.fernison.springboot.webflux.app.CodecConfig;
 import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.app.models.services.FotoService;
 import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import com.fernison.springboot.webflux.app.util.ETagUtils;
+import com.fernison.springboot.webflux.app.util.MultipartUtils;
+import com.fernison.springboot.webflux.app.util.PaginacionUtils;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
 
 @Component
 public class ProductoHandler {
@@ -39,29 +52,117 @@ public class ProductoHandler {
 	@Autowired
 	private ProductoService service;
 	
+	@Autowired
+	private FotoService fotoService;
+	
 	@Autowired
 	private Validator validator;
 	
-	@Value("${config.uploads.path}")
-	private String path;
+	@Value("${config.pagination.default-size:20}")
+	private int tamanioPorDefecto;
+	
+	@Value("${config.pagination.max-size:100}")
+	private int tamanioMaximo;
+	
+	@Value("${config.bulk.batch-size:500}")
+	private int tamanioLote;
+	
+	@Value("${config.batch-get.max-ids:100}")
+	private int maxIdsBatch;
 	
+	// Sin ETag: calcularlo obligaría a juntar el listado entero en memoria antes de responder. Se serializa según llega de Mongo
 	public Mono<ServerResponse> listar(ServerRequest request) {
 		return ServerResponse.ok()
 				.contentType(MediaType.APPLICATION_JSON)
 				.body(service.findAll(), Producto.class);
 	}
+	
+	// Listado en streaming (NDJSON o stream+json): cada producto se escribe en cuanto llega de Mongo. La lectura del cursor de Mongo
+	// avanza al ritmo de la demanda (request-N) que marca la escritura en el socket, así que no se acumula la colección en memoria
+	public Mono<ServerResponse> listarStream(ServerRequest request) {
+		MediaType tipo = request.headers().accept().contains(MediaType.APPLICATION_STREAM_JSON) 
+				? MediaType.APPLICATION_STREAM_JSON 
+				: CodecConfig.APPLICATION_NDJSON;
+		return ServerResponse.ok()
+				.contentType(tipo)
+				.body(service.findAll(), Producto.class);
+	}
+	
+	// Listado como Server-Sent Events. Cada evento lleva el id del producto
+	public Mono<ServerResponse> listarEventos(ServerRequest request) {
+		Flux<ServerSentEvent<Producto>> eventos = service.findAll()
+				.map(p -> ServerSentEvent.builder(p)
+						.id(p.getId())
+						.event("producto")
+						.build());
+		return ServerResponse.ok()
+				.contentType(MediaType.TEXT_EVENT_STREAM)
+				.body(eventos, new ParameterizedTypeReference<ServerSentEvent<Producto>>() { });
+	}
+	
+	// Listado paginado por cursor (keyset). Recibe "cursor" (opcional) y "size" como query params y devuelve la página junto con 
+	// el cursor de la siguiente en las cabeceras X-Next-Cursor y Link. Si no hay más páginas no se envían esas cabeceras
+	public Mono<ServerResponse> listarPaginado(ServerRequest request) {
+		String despuesDeId;
+		int size;
+		try {
+			despuesDeId = request.queryParam("cursor").map(PaginacionUtils::decodificarCursor).orElse(null);
+			size = PaginacionUtils.tamanioPagina(request.queryParam("size").map(Integer::valueOf).orElse(null), tamanioPorDefecto, tamanioMaximo);
+		} catch (IllegalArgumentException e) { // Cursor mal formado o size no numérico
+			return ServerResponse.badRequest()
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(fromValue(Collections.singletonMap("errors", e.getMessage())));
+		}
+		final int tamanio = size;
+		return service.findPagina(despuesDeId, tamanio + 1) // Se pide un elemento de más para saber si existe página siguiente sin hacer un count
+			.collectList()
+			.flatMap(productos -> {
+				ServerResponse.BodyBuilder respuesta = ServerResponse.ok().contentType(MediaType.APPLICATION_JSON);
+				List<Producto> pagina = productos;
+				if (productos.size() > tamanio) {
+					pagina = productos.subList(0, tamanio);
+					String cursor = PaginacionUtils.codificarCursor(pagina.get(tamanio - 1).getId());
+					respuesta.header(PaginacionUtils.HEADER_NEXT_CURSOR, cursor)
+						.header("Link", PaginacionUtils.linkNext(request.path(), cursor, tamanio));
+				}
+				return respuesta.body(fromValue(pagina));
+			});
+	}
 
 	public Mono<ServerResponse> ver(ServerRequest request) {
 		return service.findById(request.pathVariable("id"))
 			.flatMap(p -> {
+				String etag = ETagUtils.etag(p);
+				if (ETagUtils.noModificado(request, etag)) {
+					return ServerResponse.status(HttpStatus.NOT_MODIFIED).eTag(etag).build(); // El cliente ya tiene esta versión: sin cuerpo
+				}
 				return ServerResponse.ok()
 					.contentType(MediaType.APPLICATION_JSON)
+					.eTag(etag)
 					.body(fromValue(p)); // Escribe un objeto como parte de una ServerResponse reactiva
 			})
 			.switchIfEmpty(ServerResponse.notFound().build());
 
 	}
 	
+	// Lectura de varios productos a la vez. Recibe un array JSON de ids y devuelve los que existen con una sola consulta ($in sobre _id).
+	// Los ids que no existen no aparecen en la respuesta. El orden no está garantizado
+	public Mono<ServerResponse> batchGet(ServerRequest request) {
+		return request.bodyToMono(new ParameterizedTypeReference<List<String>>() { })
+			.flatMap(ids -> {
+				Set<String> distintos = new LinkedHashSet<String>(ids);
+				if (distintos.size() > maxIdsBatch) {
+					return ServerResponse.badRequest()
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(fromValue(Collections.singletonMap("errors", "Como máximo " + maxIdsBatch + " ids por petición")));
+				}
+				return ServerResponse.ok()
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(service.findAllById(distintos), Producto.class);
+			})
+			.switchIfEmpty(ServerResponse.badRequest().build()); // Sin cuerpo
+	}
+	
 	public Mono<ServerResponse> crear(ServerRequest request) {
 		// Convertir los datos del request en un Mono<Producto>
 		Mono<Producto> producto = request.bodyToMono(Producto.class);
@@ -79,58 +180,140 @@ public class ProductoHandler {
 					if (p.getCreateAt() == null) {
 						p.setCreateAt(new Date());
 					}
-					return service.findByNombre(p.getNombre())
-						.flatMap(p_exists -> {
-							Map<String, Object> respuesta = new HashMap<String, Object>();
-							respuesta.put("errors", "Producto ya existe");
-							respuesta.put("timestamp", new Date());
-							return ServerResponse.ok()
-									.contentType(MediaType.APPLICATION_JSON)
-									.body(fromValue(respuesta));
-						})
-						.switchIfEmpty(
-							 service.save(p)
-								.flatMap(pdb -> ServerResponse.created(URI.create("/api/v2/productos/".concat(pdb.getId())))
-													.contentType(MediaType.APPLICATION_JSON)
-													.body(fromValue(pdb))
-								)
-						);										
+					// Un único insert: si ya existe un producto con ese nombre lo rechaza el índice único y se responde como antes
+					return service.insert(p)
+						.flatMap(pdb -> ServerResponse.created(URI.create("/api/v2/productos/".concat(pdb.getId())))
+											.contentType(MediaType.APPLICATION_JSON)
+											.body(fromValue(pdb))
+						)
+						.onErrorResume(DuplicateKeyException.class, e -> ServerResponse.ok()
+								.contentType(MediaType.APPLICATION_JSON)
+								.body(fromValue(productoYaExiste())));
 				}
 			});						
 	}
 	
+	// Carga masiva. El cuerpo puede ser un array JSON o NDJSON (un producto por línea) y se procesa en streaming, por lotes de 
+	// "config.bulk.batch-size" elementos. Cada lote se escribe con un único bulkWrite: los productos nuevos se insertan y los que traen id
+	// se sobrescriben (upsert). Se devuelve un resultado por elemento, como NDJSON si se pide así en el Accept
+	public Mono<ServerResponse> bulk(ServerRequest request) {
+		Flux<ResultadoBulk> resultados = request.bodyToFlux(Producto.class)
+			.index() // Posición de cada elemento para poder indicar en el resultado a cuál se refiere
+			.buffer(tamanioLote)
+			.concatMap(this::guardarLote); // Los lotes van de uno en uno, así solo hay un lote en memoria a la vez
+		boolean ndjson = request.headers().accept().stream()
+			.anyMatch(tipo -> tipo.isConcrete() && tipo.isCompatibleWith(CodecConfig.APPLICATION_NDJSON));
+		return ServerResponse.ok()
+			.contentType(ndjson ? CodecConfig.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+			.body(resultados, ResultadoBulk.class);
+	}
+	
+	private Flux<ResultadoBulk> guardarLote(List<Tuple2<Long, Producto>> lote) {
+		List<ResultadoBulk> invalidos = new ArrayList<ResultadoBulk>();
+		List<Tuple2<Long, Producto>> validos = new ArrayList<Tuple2<Long, Producto>>();
+		Set<Long> nuevos = new HashSet<Long>();
+		for (Tuple2<Long, Producto> elemento : lote) {
+			Producto p = elemento.getT2();
+			Errors errors = new BeanPropertyBindingResult(p, Producto.class.getName());
+			validator.validate(p, errors);
+			if (errors.hasErrors()) {
+				invalidos.add(ResultadoBulk.error(elemento.getT1(), p, errors.getFieldErrors().stream()
+						.map(fieldError -> "El campo " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+						.collect(Collectors.toList())));
+				continue;
+			}
+			if (p.getCreateAt() == null) {
+				p.setCreateAt(new Date());
+			}
+			if (p.getId() == null) {
+				nuevos.add(elemento.getT1()); // El servicio le asigna el id
+			}
+			validos.add(elemento);
+		}
+		List<Producto> productos = validos.stream().map(Tuple2::getT2).collect(Collectors.toList());
+		return Flux.fromIterable(invalidos)
+			.concatWith(service.guardarTodos(productos)
+				.onErrorResume(e -> Mono.just(todos(validos.size(), e))) // Ha fallado el lote entero
+				.flatMapIterable(errores -> {
+					List<ResultadoBulk> resultados = new ArrayList<ResultadoBulk>();
+					for (int i = 0; i < validos.size(); i++) {
+						Tuple2<Long, Producto> elemento = validos.get(i);
+						Throwable error = errores.get(i);
+						resultados.add(error != null 
+								? ResultadoBulk.error(elemento.getT1(), elemento.getT2(), mensajeError(error))
+								: ResultadoBulk.ok(elemento.getT1(), elemento.getT2(), nuevos.contains(elemento.getT1()) ? ResultadoBulk.CREADO : ResultadoBulk.GUARDADO));
+					}
+					return resultados;
+				}));
+	}
+	
+	private static Map<Integer, Throwable> todos(int cantidad, Throwable error) {
+		Map<Integer, Throwable> errores = new HashMap<Integer, Throwable>();
+		for (int i = 0; i < cantidad; i++) {
+			errores.put(i, error);
+		}
+		return errores;
+	}
+	
+	private static Map<String, Object> productoYaExiste() {
+		Map<String, Object> respuesta = new HashMap<String, Object>();
+		respuesta.put("errors", "Producto ya existe");
+		respuesta.put("timestamp", new Date());
+		return respuesta;
+	}
+	
+	private List<String> mensajeError(Throwable e) {
+		if (e instanceof DuplicateKeyException) {
+			return Collections.singletonList("Producto ya existe");
+		}
+		if (e instanceof OptimisticLockingFailureException) {
+			return Collections.singletonList("El producto ha cambiado mientras se guardaba");
+		}
+		return Collections.singletonList(e.getMessage());
+	}
+	
 	public Mono<ServerResponse> crearConFoto(ServerRequest request) {
-		// Parar obtener la información del Producto que viene en el formData
-		Mono<Producto> producto = request.multipartData().map(multipart -> {
-			FormFieldPart nombre = (FormFieldPart)multipart.toSingleValueMap().get("nombre");
-			FormFieldPart precio = (FormFieldPart)multipart.toSingleValueMap().get("precio");
-			FormFieldPart categoriaId = (FormFieldPart)multipart.toSingleValueMap().get("categoria.id");
-			FormFieldPart categoriaNombre = (FormFieldPart)multipart.toSingleValueMap().get("categoria.nombre");
-			Categoria categoria = new Categoria(categoriaNombre.value());
-			categoria.setId(categoriaId.value());
-			return new Producto(nombre.value(), Double.parseDouble(precio.value()), categoria);
-		});
-		
-		return request.multipartData()
-			.map(multipart -> multipart.toSingleValueMap().get("file"))
-			.cast(FilePart.class)
-			.flatMap(file -> {
-				 return producto
-						.flatMap(p -> {
-							p.setFoto(UUID.randomUUID().toString() + "-" + file.filename()
-								.replace(" ", "")
-								.replace(":", "")
-								.replace("\\", ""));
-							p.setCreateAt(new Date());
-							return file.transferTo(new File(path + p.getFoto())).then(service.save(p));		
-						})
-						.flatMap(p -> {
-							return ServerResponse.ok()
-									.contentType(MediaType.APPLICATION_JSON)
-									.body(fromValue(p));
-						});		
-		
+		if (demasiadoGrande(request)) {
+			return ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+		}
+		// Los parts se leen una sola vez y en orden: los campos del formulario se guardan en un mapa y el fichero se pasa al almacén de
+		// fotos, que lo copia a su sitio calculando el hash. El lector de multipart (CodecConfig) limita el tamaño de cada part
+		Map<String, String> campos = new HashMap<String, String>();
+		return MultipartUtils.leer(request.body(BodyExtractors.toParts()), "file", campos, fotoService::guardar)
+			.flatMap(foto -> {
+				Categoria categoria = new Categoria(campos.get("categoria.nombre"));
+				categoria.setId(campos.get("categoria.id"));
+				Producto p = new Producto(campos.get("nombre"), Double.parseDouble(campos.get("precio")), categoria);
+				p.setFoto(foto.getNombre());
+				p.setMiniaturas(foto.getMiniaturas());
+				p.setCreateAt(new Date());
+				return service.save(p)
+					.onErrorResume(e -> fotoService.liberar(foto.getNombre()).then(Mono.error(e))); // Nadie va a usar la referencia que ha sumado guardar
+			})
+			.flatMap(p -> {
+				return ServerResponse.ok()
+						.contentType(MediaType.APPLICATION_JSON)
+						.body(fromValue(p));
+			})
+			.switchIfEmpty(Mono.defer(this::sinFichero))
+			.onErrorResume(e -> limiteMultipart(e));
+	}
+	
+	// Aciertos y fallos de las caches del servicio
+	public Mono<ServerResponse> estadisticasCache(ServerRequest request) {
+		Map<String, Object> estadisticas = new HashMap<String, Object>();
+		service.getCaches().forEach(cache -> {
+			Map<String, Object> datos = new HashMap<String, Object>();
+			datos.put("aciertos", cache.getEstadisticas().hitCount());
+			datos.put("fallos", cache.getEstadisticas().missCount());
+			datos.put("ratioAciertos", cache.getEstadisticas().hitRate());
+			datos.put("expulsiones", cache.getEstadisticas().evictionCount());
+			datos.put("tamanio", cache.getTamanio());
+			estadisticas.put(cache.getNombre(), datos);
 		});
+		return ServerResponse.ok()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(fromValue(estadisticas));
 	}
 	
 	public Mono<ServerResponse> editar(ServerRequest request) {
@@ -153,10 +336,17 @@ public class ProductoHandler {
 	
 		// Mi forma -> Funciona
 		Mono<Producto> monoProducto = request.bodyToMono(Producto.class);
+		String id = request.pathVariable("id");
+		Long versionIfMatch = ETagUtils.versionIfMatch(request, id);
 		return monoProducto
 			.flatMap(producto -> {
-				return service.findById(request.pathVariable("id"))
+				// Versión sobre la que el cliente ha hecho los cambios: la del If-Match o, si no lo envía, la del cuerpo
+				Long versionCliente = versionIfMatch != null ? versionIfMatch : producto.getVersion();
+				return service.findByIdSinCache(id) // Copia propia y recién leída: la de la cache puede ir por detrás de otra instancia
 					.flatMap(p -> {
+						if (versionCliente != null && !versionCliente.equals(p.getVersion())) {
+							return Mono.error(new OptimisticLockingFailureException("El producto " + id + " está en la versión " + p.getVersion()));
+						}
 						p.setNombre(producto.getNombre());
 						p.setPrecio(producto.getPrecio());
 						p.setCreateAt(producto.getCreateAt());
@@ -166,43 +356,84 @@ public class ProductoHandler {
 					.flatMap(p -> {
 						return ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
 								.contentType(MediaType.APPLICATION_JSON)
+								.eTag(ETagUtils.etag(p))
 								.body(fromValue(p));
 					})
+					.onErrorResume(OptimisticLockingFailureException.class, e -> productoCambiado())
+					.onErrorResume(DuplicateKeyException.class, e -> ServerResponse.status(HttpStatus.CONFLICT) // El nombre nuevo ya lo tiene otro producto (índice único)
+							.contentType(MediaType.APPLICATION_JSON)
+							.body(fromValue(productoYaExiste())))
 					.switchIfEmpty(ServerResponse.notFound().build());	
 			});
 	}
 	
+	// Como en todas las escrituras, se parte de una copia recién leída de Mongo: con la de la cache, que puede ir por detrás de otra instancia,
+	// la comprobación de @Version fallaría aunque nadie más estuviera cambiando el producto
 	public Mono<ServerResponse> eliminar(ServerRequest request) {
-		return service.findById(request.pathVariable("id"))
+		return service.findByIdSinCache(request.pathVariable("id"))
 			.flatMap(p -> {
 				return service.delete(p).then(ServerResponse.noContent().build()); // Se usa then porque delete devuelve un Mono<Void> y es necesario ejecutar luego más acciones
 			})
+			.onErrorResume(OptimisticLockingFailureException.class, e -> productoCambiado())
 			.switchIfEmpty(ServerResponse.notFound().build());
 	}
 	
 	public Mono<ServerResponse> upload(ServerRequest request) {
-		// Las 4 primeras lineas es para obtener el FilePart de la peticion
-		return request.multipartData()
-			.map(multipart -> multipart.toSingleValueMap().get("file"))
-			.cast(FilePart.class)
-			.flatMap(file -> {
-				return service.findById(request.pathVariable("id"))
-						.flatMap(p -> {
-							p.setFoto(UUID.randomUUID().toString() + "-" + file.filename()
-								.replace(" ", "")
-								.replace(":", "")
-								.replace("\\", ""));
-							return file.transferTo(new File(path + p.getFoto())).then(service.save(p));		
+		if (demasiadoGrande(request)) {
+			return ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+		}
+		return service.findByIdSinCache(request.pathVariable("id"))
+				.flatMap(p -> {
+					return MultipartUtils.leer(request.body(BodyExtractors.toParts()), "file", new HashMap<String, String>(), fotoService::guardar)
+						.flatMap(foto -> {
+							String anterior = p.getFoto();
+							p.setFoto(foto.getNombre());
+							p.setMiniaturas(foto.getMiniaturas());
+							return service.save(p)
+								.onErrorResume(e -> fotoService.liberar(foto.getNombre()).then(Mono.error(e))) // Nadie va a usar la referencia que ha sumado guardar
+								.flatMap(pdb -> fotoService.liberar(anterior).thenReturn(pdb)); // La foto que tenía antes pierde una referencia
 						})
-						.flatMap(p -> {
+						.flatMap(pdb -> {
 							return ServerResponse.ok()
 									.contentType(MediaType.APPLICATION_JSON)
-									.body(fromValue(p));
+									.body(fromValue(pdb));
 						})
-						.switchIfEmpty(ServerResponse.notFound().build());		
-		
-		});
+						.switchIfEmpty(Mono.defer(this::sinFichero))
+						.onErrorResume(OptimisticLockingFailureException.class, e -> productoCambiado())
+						.onErrorResume(e -> limiteMultipart(e));
+				})
+				.switchIfEmpty(ServerResponse.notFound().build());
+	}
+	
+	// Otro guardado se ha adelantado o el cliente ha trabajado sobre una versión antigua
+	private Mono<ServerResponse> productoCambiado() {
+		return ServerResponse.status(HttpStatus.CONFLICT)
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(fromValue(Collections.singletonMap("errors", "El producto ha cambiado en otra petición")));
 	}
-
 	
+	private boolean demasiadoGrande(ServerRequest request) {
+		return MultipartUtils.superaTamanio(request.headers().contentLength().orElse(0), fotoService.getTamanioMaximo());
+	}
+	
+	private Mono<ServerResponse> sinFichero() {
+		return ServerResponse.badRequest()
+				.contentType(MediaType.APPLICATION_JSON)
+				.body(fromValue(Collections.singletonMap("errors", "Falta el fichero (part \"file\")")));
+	}
+	
+	// Límites del lector de multipart (CodecConfig). El resto de errores se propagan
+	private Mono<ServerResponse> limiteMultipart(Throwable e) {
+		HttpStatus status = MultipartUtils.status(e);
+		if (status == HttpStatus.PAYLOAD_TOO_LARGE) {
+			return ServerResponse.status(status).build();
+		}
+		if (status != null) {
+			return ServerResponse.status(status)
+					.contentType(MediaType.APPLICATION_JSON)
+					.body(fromValue(Collections.singletonMap("errors", e.getMessage())));
+		}
+		return Mono.error(e);
+	}
+
 }
@@ -0,0 +1,57 @@
+package com.fernison.springboot.webflux.app.handler;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+// Resultado de cada elemento de una carga masiva. "indice" es la posición del elemento en el cuerpo de la petición
+public class ResultadoBulk {
+
+	public static final String CREADO = "creado";
+	public static final String GUARDADO = "guardado";
+	public static final String ERROR = "error";
+	
+	private long indice;
+	private String id;
+	private String nombre;
+	private String estado;
+	private List<String> errores;
+	
+	public ResultadoBulk(long indice, Producto producto, String estado, List<String> errores) {
+		this.indice = indice;
+		this.id = producto.getId();
+		this.nombre = producto.getNombre();
+		this.estado = estado;
+		this.errores = errores;
+	}
+	
+	public static ResultadoBulk ok(long indice, Producto producto, String estado) {
+		return new ResultadoBulk(indice, producto, estado, Collections.emptyList());
+	}
+	
+	public static ResultadoBulk error(long indice, Producto producto, List<String> errores) {
+		return new ResultadoBulk(indice, producto, ERROR, errores);
+	}
+
+	public long getIndice() {
+		return indice;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public String getEstado() {
+		return estado;
+	}
+
+	public List<String> getErrores() {
+		return errores;
+	}
+
+}
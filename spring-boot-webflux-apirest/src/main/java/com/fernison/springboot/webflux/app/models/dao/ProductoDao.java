@@ -1,10 +1,12 @@
 package com.fernison.springboot.webflux.app.models.dao;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 
 import com.fernison.springboot.webflux.app.models.documents.Producto;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductoDao extends ReactiveMongoRepository<Producto, String> {
@@ -13,5 +15,11 @@ public interface ProductoDao extends ReactiveMongoRepository<Producto, String> {
 	
 	@Query("{ 'nombre':?0 }") // Consulta para buscar por nombre
 	public Mono<Producto> obtenerPorNombre(String nombre); // La query se indica manualmente
+	
+	// Primera página de la paginación por cursor. El orden y el límite se indican con el Pageable
+	public Flux<Producto> findAllBy(Pageable pageable);
+	
+	// Resto de páginas: elementos con _id mayor que el último devuelto. Usa el índice de _id, por lo que el coste no depende de la página
+	public Flux<Producto> findByIdGreaterThan(String id, Pageable pageable);
 
 }
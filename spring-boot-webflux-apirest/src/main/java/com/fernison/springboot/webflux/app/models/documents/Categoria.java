@@ -19,6 +19,11 @@ public class Categoria {
 	}
 
 	public Categoria() {}
+	
+	public Categoria(Categoria otra) { // Copia
+		this.id = otra.id;
+		this.nombre = otra.nombre;
+	}
 
 	public String getId() {
 		return id;
@@ -0,0 +1,49 @@
+package com.fernison.springboot.webflux.app.models.documents;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// Número de productos que usan cada foto. Las fotos se guardan por el hash de su contenido, así que varios productos pueden 
+// compartir el mismo fichero. Cuando el contador llega a 0 el fichero se borra
+@Document(collection = "fotos")
+public class FotoReferencia {
+
+	@Id
+	private String nombre;
+	
+	private long referencias;
+	
+	private boolean borrando; // Se están borrando los ficheros: nadie puede sumar referencias hasta que se quite el documento
+	
+	public FotoReferencia() { }
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public void setNombre(String nombre) {
+		this.nombre = nombre;
+	}
+
+	public long getReferencias() {
+		return referencias;
+	}
+
+	public void setReferencias(long referencias) {
+		this.referencias = referencias;
+	}
+
+	public boolean isBorrando() {
+		return borrando;
+	}
+
+	public void setBorrando(boolean borrando) {
+		this.borrando = borrando;
+	}
+
+	@Override
+	public String toString() {
+		return "FotoReferencia [nombre=" + nombre + ", referencias=" + referencias + ", borrando=" + borrando + "]";
+	}
+
+}
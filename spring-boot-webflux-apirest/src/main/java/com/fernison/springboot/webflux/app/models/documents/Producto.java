@@ -1,35 +1,54 @@
 package com.fernison.springboot.webflux.app.models.documents;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 @Document(collection = "productos")
+@CompoundIndex(name = "categoria_id", def = "{ 'categoria._id': 1 }") // Para las búsquedas por categoría. El id de la categoría embebida se guarda como _id
 public class Producto {
 	
 	@Id
 	private String id;
 	
 	@NotEmpty //Para Strings
+	@Indexed(unique = true) // No puede haber dos productos con el mismo nombre. Lo garantiza Mongo, también con altas concurrentes
 	private String nombre;
 	
 	@NotNull // Que no sea nulo
 	private Double precio;
 	
 	@DateTimeFormat(pattern = "yyyy-MM-dd") // Para adaptar la fecha a lo que maneja nuestra aplicación y no usar el formato estándar de Spring
+	@Indexed
 	private Date createAt;
 	
 	@Valid
 	@NotNull
 	private Categoria categoria;
 	
+	// La foto y las miniaturas solo se cambian subiendo un fichero (FotoService cuenta sus referencias). Si vienen en el JSON de un alta,
+	// una edición o una carga masiva se ignoran
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
 	private String foto;
+	
+	@JsonProperty(access = JsonProperty.Access.READ_ONLY)
+	private Map<String, String> miniaturas; // Nombre de la miniatura de la foto por tamaño máximo en píxeles ("160" -> "...-160.png")
+	
+	@Version // Se incrementa en cada guardado y rechaza guardar sobre una versión antigua. Sirve también para el ETag
+	private Long version;
 		
 	public Producto(String nombre, Double precio) {
 		this.nombre = nombre;
@@ -39,6 +58,16 @@ public class Producto {
 		this(nombre, precio);
 		this.categoria = categoria;
 	}
+	public Producto(Producto otro) { // Copia. La categoría, la fecha y las miniaturas también se copian porque son mutables
+		this.id = otro.id;
+		this.nombre = otro.nombre;
+		this.precio = otro.precio;
+		this.createAt = otro.createAt == null ? null : new Date(otro.createAt.getTime());
+		this.categoria = otro.categoria == null ? null : new Categoria(otro.categoria);
+		this.foto = otro.foto;
+		this.miniaturas = otro.miniaturas == null ? null : new HashMap<String, String>(otro.miniaturas);
+		this.version = otro.version;
+	}
 	public Producto() { } // Es necesario crear un constructor vacío para que JPA/Mongo lo use por debajo. En este caso no se usa JPA porque es la implementaciónr reactiva
 	
 	public String getId() {
@@ -73,16 +102,28 @@ public class Producto {
 		this.categoria = categoria;
 	}
 	
+	public Long getVersion() {
+		return version;
+	}
+	public void setVersion(Long version) {
+		this.version = version;
+	}
 	public String getFoto() {
 		return foto;
 	}
 	public void setFoto(String foto) {
 		this.foto = foto;
 	}
+	public Map<String, String> getMiniaturas() {
+		return miniaturas;
+	}
+	public void setMiniaturas(Map<String, String> miniaturas) {
+		this.miniaturas = miniaturas;
+	}
 	@Override
 	public String toString() {
 		return "Producto [id=" + id + ", nombre=" + nombre + ", precio=" + precio + ", createAt=" + createAt
-				+ ", categoria=" + categoria + ", foto=" + foto + "]";
+				+ ", categoria=" + categoria + ", foto=" + foto + ", miniaturas=" + miniaturas + ", version=" + version + "]";
 	}
 	
 	
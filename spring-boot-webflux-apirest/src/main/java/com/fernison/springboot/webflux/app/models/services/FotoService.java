@@ -0,0 +1,24 @@
+package com.fernison.springboot.webflux.app.models.services;
+
+import java.nio.file.Path;
+
+import org.springframework.http.codec.multipart.FilePart;
+
+import reactor.core.publisher.Mono;
+
+// Almacén de las fotos de los productos. Producto.foto guarda solo el nombre que devuelve guardar; dónde y cómo se guarda el 
+// fichero lo decide la implementación
+public interface FotoService {
+
+	// Guarda el contenido del part y suma una referencia a la foto. Falla con 415 si el tipo no está permitido y con 413 si supera el tamaño máximo
+	public Mono<FotoSubida> guardar(FilePart file);
+	
+	// Resta una referencia a la foto y borra el fichero si ya no la usa ningún producto
+	public Mono<Void> liberar(String nombre);
+	
+	// Ruta del fichero de una foto
+	public Path ruta(String nombre);
+	
+	public long getTamanioMaximo();
+	
+}
@@ -0,0 +1,240 @@
+package com.fernison.springboot.webflux.app.models.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fernison.springboot.webflux.app.models.documents.FotoReferencia;
+import com.fernison.springboot.webflux.comun.miniaturas.MiniaturaService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+// Almacén de fotos direccionado por contenido. Cada foto se llama como el SHA-256 de su contenido más la extensión, así que subir la misma 
+// imagen para varios productos solo ocupa un fichero. Los ficheros se reparten en dos niveles de directorios con los 4 primeros caracteres
+// del hash (ab/cd/abcd...png) para que ningún directorio acabe con millones de entradas. La colección "fotos" cuenta cuántos productos 
+// usan cada una y, al llegar a 0, se borra el fichero
+@Service
+public class FotoServiceImpl implements FotoService {
+
+	private static final Logger log = LoggerFactory.getLogger(FotoServiceImpl.class);
+	
+	private static final Pattern NOMBRE_POR_HASH = Pattern.compile("^[0-9a-f]{64}(-\\d+)?(\\.[a-z0-9]{1,5})?$"); // Foto o miniatura (hash-160.png)
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+	
+	@Autowired
+	private MiniaturaService miniaturaService;
+	
+	@Value("${config.uploads.path}")
+	private String path;
+	
+	@Value("${config.uploads.max-size:10MB}")
+	private DataSize tamanioMaximo;
+	
+	@Value("${config.uploads.content-types:image/jpeg,image/png,image/gif,image/webp}")
+	private List<String> tipos;
+	
+	private List<MediaType> tiposPermitidos;
+	
+	@PostConstruct
+	public void init() {
+		tiposPermitidos = tipos.stream().map(MediaType::parseMediaType).collect(Collectors.toList());
+	}
+	
+	// El lector de multipart ya ha recibido el part entero (en un temporal suyo si es grande, ver CodecConfig). Aquí se copia buffer a buffer
+	// a un fichero temporal del almacén con un AsynchronousFileChannel (DataBufferUtils.write), sin bloquear el event loop, y mientras se
+	// copia se va contando el tamaño y calculando el hash.
+	// Al terminar, si ya existe una foto con ese hash se descarta el temporal y si no se mueve a su sitio; si algo falla se borra
+	@Override
+	public Mono<FotoSubida> guardar(FilePart file) {
+		MediaType tipo = file.headers().getContentType();
+		if (tipo == null || tiposPermitidos.stream().noneMatch(permitido -> permitido.includes(tipo))) {
+			return Mono.error(new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Tipo de fichero no permitido: " + tipo));
+		}
+		String extension = extension(file.filename());
+		Path directorio = Paths.get(path);
+		return Mono.fromCallable(() -> Files.createTempFile(directorio, "subida-", ".tmp"))
+			.subscribeOn(Schedulers.boundedElastic()) // Operaciones de ficheros bloqueantes, fuera del event loop
+			.flatMap(temporal -> {
+				MessageDigest digest = sha256();
+				AtomicLong tamanio = new AtomicLong();
+				Flux<DataBuffer> contenido = file.content()
+					.handle((buffer, sink) -> {
+						if (tamanio.addAndGet(buffer.readableByteCount()) > tamanioMaximo.toBytes()) {
+							DataBufferUtils.release(buffer);
+							sink.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "La foto supera el tamaño máximo de " + tamanioMaximo));
+							return;
+						}
+						digest.update(buffer.asByteBuffer()); // asByteBuffer es una vista: no mueve la posición de lectura del buffer
+						sink.next(buffer);
+					});
+				return DataBufferUtils.write(contenido, temporal, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+					.then(Mono.defer(() -> {
+						String hash = hex(digest.digest());
+						String nombre = hash + extension;
+						// Primero se suma la referencia: así liberar() de otro producto con la misma foto no puede borrar el fichero mientras se coloca
+						return sumarReferencia(nombre)
+							.then(Mono.fromRunnable(() -> colocar(temporal, ruta(nombre))).subscribeOn(Schedulers.boundedElastic())
+								.then(miniaturaService.generar(ruta(nombre))) // Si la foto ya existía, sus miniaturas también y no se vuelven a generar
+								.map(miniaturas -> new FotoSubida(nombre, hash, tamanio.get(), miniaturas))
+								// Con la referencia ya sumada, cualquier error la devuelve: si no, la foto no se podría borrar nunca
+								.onErrorResume(error -> liberar(nombre)
+									.onErrorResume(e -> {
+										log.warn("No se ha podido liberar la foto " + nombre + " tras un error al guardarla", e);
+										return Mono.empty();
+									})
+									.then(Mono.error(error))));
+					}))
+					.onErrorResume(error -> Mono.fromRunnable(() -> borrar(temporal))
+						.subscribeOn(Schedulers.boundedElastic())
+						.then(Mono.error(error)));
+			});
+	}
+	
+	// El borrado se hace en tres pasos sobre el documento de la foto para que no se cruce con un guardar() de la misma foto:
+	// 1. Se resta la referencia. Si quedan productos que la usan no se hace nada más
+	// 2. Se marca como "borrando", solo si sigue a 0. Si entretanto otro producto ha sumado una referencia no se marca y el fichero se queda
+	// 3. Se borran los ficheros y después el documento. Mientras está marcada, guardar() no puede sumar referencias (ver sumarReferencia),
+	//    así que nadie puede dar por buena la foto que se está borrando
+	@Override
+	public Mono<Void> liberar(String nombre) {
+		if (nombre == null || !NOMBRE_POR_HASH.matcher(nombre).matches()) {
+			return Mono.empty(); // Sin foto o foto antigua (UUID-nombre), que no lleva contador
+		}
+		return mongoTemplate.findAndModify(query(where("_id").is(nombre)), new Update().inc("referencias", -1), 
+					FindAndModifyOptions.options().returnNew(true), FotoReferencia.class)
+			.filter(referencia -> referencia.getReferencias() <= 0)
+			.flatMap(referencia -> mongoTemplate.updateFirst(query(where("_id").is(nombre).and("referencias").lte(0).and("borrando").ne(true)), 
+					Update.update("borrando", true), FotoReferencia.class))
+			.filter(resultado -> resultado.getModifiedCount() > 0)
+			.flatMap(resultado -> Mono.fromRunnable(() -> borrarConMiniaturas(ruta(nombre)))
+				.subscribeOn(Schedulers.boundedElastic())
+				// Aunque falle el borrado se quita la marca: si no, nadie podría volver a subir esta foto. Lo que quede lo reutiliza el siguiente guardar()
+				.onErrorResume(e -> {
+					log.warn("No se han podido borrar los ficheros de la foto " + nombre, e);
+					return Mono.empty();
+				})
+				.then(mongoTemplate.remove(query(where("_id").is(nombre).and("borrando").is(true)), FotoReferencia.class)))
+			.doOnSuccess(v -> log.debug("Foto liberada: " + nombre))
+			.then();
+	}
+	
+	// Upsert que suma una referencia, salvo que la foto se esté borrando: entonces el filtro no coincide, el upsert intenta crear otro
+	// documento con el mismo _id y falla con clave duplicada. Se reintenta hasta que liberar() termina y quita el documento
+	private Mono<Void> sumarReferencia(String nombre) {
+		return mongoTemplate.upsert(query(where("_id").is(nombre).and("borrando").ne(true)), new Update().inc("referencias", 1), FotoReferencia.class)
+			.retryWhen(Retry.fixedDelay(50, Duration.ofMillis(100)).filter(DuplicateKeyException.class::isInstance))
+			.then();
+	}
+	
+	// ab/cd/abcdef...png. Las fotos antiguas, que no se nombran por hash, siguen en la raíz del directorio de subidas
+	@Override
+	public Path ruta(String nombre) {
+		Path directorio = Paths.get(path);
+		if (!NOMBRE_POR_HASH.matcher(nombre).matches()) {
+			return directorio.resolve(nombre);
+		}
+		return directorio.resolve(nombre.substring(0, 2)).resolve(nombre.substring(2, 4)).resolve(nombre);
+	}
+	
+	@Override
+	public long getTamanioMaximo() {
+		return tamanioMaximo.toBytes();
+	}
+	
+	private static void colocar(Path temporal, Path destino) {
+		try {
+			if (Files.exists(destino)) {
+				Files.delete(temporal); // Misma foto ya guardada: no se duplica
+				return;
+			}
+			Files.createDirectories(destino.getParent());
+			Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static String extension(String filename) {
+		String extension = StringUtils.getFilenameExtension(filename);
+		if (extension == null || !extension.matches("[A-Za-z0-9]{1,5}")) {
+			return "";
+		}
+		return "." + extension.toLowerCase(Locale.ROOT);
+	}
+	
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // Todas las JVM tienen SHA-256
+		}
+	}
+	
+	private static String hex(byte[] bytes) {
+		return String.format("%0" + (bytes.length * 2) + "x", new BigInteger(1, bytes));
+	}
+	
+	// Borra la foto y las miniaturas que se generaron a su lado (hash-160.png, hash-480.png...)
+	private static void borrarConMiniaturas(Path foto) {
+		String base = StringUtils.stripFilenameExtension(foto.getFileName().toString());
+		try (DirectoryStream<Path> miniaturas = Files.newDirectoryStream(foto.getParent(), base + "-*")) {
+			for (Path miniatura : miniaturas) {
+				Files.deleteIfExists(miniatura);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		borrar(foto);
+	}
+	
+	private static void borrar(Path fichero) {
+		try {
+			Files.deleteIfExists(fichero);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+}
@@ -0,0 +1,41 @@
+package com.fernison.springboot.webflux.app.models.services;
+
+import java.util.Map;
+
+// Datos de una foto ya guardada en disco
+public class FotoSubida {
+
+	private final String nombre;
+	private final String hash; // SHA-256 del contenido en hexadecimal, calculado mientras se escribe
+	private final long tamanio;
+	private final Map<String, String> miniaturas;
+	
+	public FotoSubida(String nombre, String hash, long tamanio, Map<String, String> miniaturas) {
+		this.nombre = nombre;
+		this.hash = hash;
+		this.tamanio = tamanio;
+		this.miniaturas = miniaturas;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public long getTamanio() {
+		return tamanio;
+	}
+
+	public Map<String, String> getMiniaturas() {
+		return miniaturas;
+	}
+
+	@Override
+	public String toString() {
+		return "FotoSubida [nombre=" + nombre + ", hash=" + hash + ", tamanio=" + tamanio + ", miniaturas=" + miniaturas + "]";
+	}
+
+}
@@ -1,7 +1,11 @@
 package com.fernison.springboot.webflux.app.models.services;
 
+import java.util.List;
+import java.util.Map;
+
 import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.comun.cache.CacheReactiva;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -10,14 +14,28 @@ public interface ProductoService {
 
 	public Flux<Producto> findAll();
 	
+	// Devuelve como máximo "tamanio" productos ordenados por _id a partir del id indicado (null para la primera página)
+	public Flux<Producto> findPagina(String despuesDeId, int tamanio);
+	
 	public Flux<Producto> findAllConNombreUpperCase();
 	
 	public Flux<Producto> findAllConNombreUpperCaseConRepeat();
 	
 	public Mono<Producto> findById(String id);
 	
+	// Lee de Mongo sin pasar por la cache, para editar sobre la versión actual
+	public Mono<Producto> findByIdSinCache(String id);
+	
 	public Mono<Producto> save(Producto producto);
 	
+	public Mono<Producto> insert(Producto producto);
+	
+	// Guarda todos los productos con una única operación bulkWrite: inserta los que no tienen id y sobrescribe (upsert) los que lo tienen.
+	// Devuelve los errores por posición en la lista; los que no aparecen se han guardado
+	public Mono<Map<Integer, Throwable>> guardarTodos(List<Producto> productos);
+	
+	public Flux<Producto> findAllById(Iterable<String> ids);
+	
 	public Mono<Void> delete(Producto producto);
 	
 	public Flux<Categoria> findAllCategoria();
@@ -31,5 +49,8 @@ public interface ProductoService {
 	public Mono<Producto> obtenerPorNombre(String nombre);
 	
 	public Mono<Categoria> findCategoriaByNombre(String nombre);
+	
+	// Caches internas del servicio, para consultar sus estadísticas
+	public List<CacheReactiva<?, ?>> getCaches();
 
 }
@@ -1,12 +1,43 @@
 package com.fernison.springboot.webflux.app.models.services;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.stereotype.Service;
 
 import com.fernison.springboot.webflux.app.models.dao.CategoriaDao;
 import com.fernison.springboot.webflux.app.models.dao.ProductoDao;
 import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.comun.cache.CacheReactiva;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -14,30 +45,165 @@ import reactor.core.publisher.Mono;
 @Service
 public class ProductoServiceImpl implements ProductoService {
 
+	// "E11000 duplicate key error collection: <bd>.producto index: <índice> dup key: { ... }"
+	private static final Pattern INDICE_DUPLICADO = Pattern.compile(" index: (\\S+) dup key");
+	
 	@Autowired
 	private ProductoDao dao;
 	
 	@Autowired
 	private CategoriaDao categoriaDao;
 	
+	@Autowired
+	private FotoService fotoService;
+	
+	@Autowired
+	private ReactiveMongoTemplate mongoTemplate;
+	
+	@Value("${config.cache.productos.max-size:10000}")
+	private long tamanioCacheProductos;
+	
+	@Value("${config.cache.productos.ttl:60s}")
+	private Duration ttlProductos;
+	
+	@Value("${config.cache.categorias.ttl:10m}")
+	private Duration ttlCategorias;
+	
+	// Productos por id y categorías (colección pequeña y que casi no cambia). Se actualizan al guardar y se invalidan al borrar.
+	// Cada instancia del backend tiene su propia cache y no se entera de lo que guardan las demás: con varias instancias registradas en
+	// Eureka una lectura puede devolver hasta config.cache.productos.ttl un producto que otra instancia ya ha cambiado. Las escrituras no
+	// se ven afectadas: se comprueban contra la versión de Mongo (@Version)
+	private CacheReactiva<String, Producto> cacheProductos;
+	private CacheReactiva<String, Categoria> cacheCategoriasPorId;
+	private CacheReactiva<String, Categoria> cacheCategoriasPorNombre;
+	private CacheReactiva<String, List<Categoria>> cacheTodasCategorias;
+	
+	@PostConstruct
+	public void crearCaches() {
+		cacheProductos = new CacheReactiva<String, Producto>("productos", tamanioCacheProductos, ttlProductos, Producto::new);
+		cacheCategoriasPorId = new CacheReactiva<String, Categoria>("categorias.id", 1000, ttlCategorias, Categoria::new);
+		cacheCategoriasPorNombre = new CacheReactiva<String, Categoria>("categorias.nombre", 1000, ttlCategorias, Categoria::new);
+		cacheTodasCategorias = new CacheReactiva<String, List<Categoria>>("categorias.todas", 1, ttlCategorias, ProductoServiceImpl::copiar);
+	}
+	
 	@Override
 	public Flux<Producto> findAll() {
 		return dao.findAll();
 	}
 
+	@Override
+	public Flux<Producto> findPagina(String despuesDeId, int tamanio) {
+		PageRequest pagina = PageRequest.of(0, tamanio, Sort.by(Sort.Direction.ASC, "id")); // Siempre la página 0: el desplazamiento lo da el cursor, no un skip
+		if (despuesDeId == null) {
+			return dao.findAllBy(pagina);
+		}
+		return dao.findByIdGreaterThan(despuesDeId, pagina);
+	}
+
 	@Override
 	public Mono<Producto> findById(String id) {
-		return dao.findById(id);
+		return cacheProductos.get(id, dao::findById);
+	}
+
+	@Override
+	public Mono<Producto> findByIdSinCache(String id) {
+		return dao.findById(id)
+				.doOnNext(p -> cacheProductos.put(id, p)); // Ya que se ha leído, se refresca la cache (guarda una copia)
 	}
 
 	@Override
 	public Mono<Producto> save(Producto producto) {
-		return dao.save(producto);
+		return dao.save(producto)
+				.doOnNext(p -> cacheProductos.put(p.getId(), p))
+				.doOnError(e -> {
+					// Si ha fallado por la versión, otra instancia lo ha cambiado y lo que hay en la cache ya no coincide con Mongo
+					if (producto.getId() != null) {
+						cacheProductos.invalidar(producto.getId());
+					}
+				});
+	}
+
+	@Override
+	public Mono<Producto> insert(Producto producto) {
+		return dao.insert(producto)
+				.doOnNext(p -> cacheProductos.put(p.getId(), p));
+	}
+
+	// Un único bulkWrite no ordenado por lote: un error en un elemento no para los demás y cada error trae la posición del elemento.
+	// Los productos sin id se insertan (versión 0). Los que traen id sobrescriben lo que haya con un upsert que incrementa la versión,
+	// así los ETags de los clientes dejan de valer. Si traen versión solo se sobrescribe esa versión
+	@Override
+	public Mono<Map<Integer, Throwable>> guardarTodos(List<Producto> productos) {
+		if (productos.isEmpty()) {
+			return Mono.just(Collections.emptyMap());
+		}
+		List<WriteModel<Document>> escrituras = new ArrayList<WriteModel<Document>>();
+		for (Producto producto : productos) {
+			if (producto.getId() == null) {
+				producto.setId(new ObjectId().toHexString());
+				producto.setVersion(0L);
+				escrituras.add(new InsertOneModel<Document>(documento(producto)));
+				continue;
+			}
+			Document campos = documento(producto);
+			Document filtro = new Document("_id", campos.remove("_id"));
+			Object version = campos.remove("version");
+			if (version != null) {
+				filtro.append("version", version); // Si ha cambiado no coincide y el upsert falla por el _id duplicado
+			}
+			Document cambios = new Document("$set", campos).append("$inc", new Document("version", 1L));
+			escrituras.add(new UpdateOneModel<Document>(filtro, cambios, new UpdateOptions().upsert(true)));
+		}
+		return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Producto.class))
+				.flatMap(coleccion -> Mono.from(coleccion.bulkWrite(escrituras, new BulkWriteOptions().ordered(false))))
+				.map(resultado -> Collections.<Integer, Throwable>emptyMap())
+				.onErrorResume(MongoBulkWriteException.class, e -> {
+					Map<Integer, Throwable> errores = new HashMap<Integer, Throwable>();
+					for (BulkWriteError error : e.getWriteErrors()) {
+						errores.put(error.getIndex(), traducir(error));
+					}
+					return Mono.just(errores);
+				})
+				.doOnTerminate(() -> productos.forEach(p -> cacheProductos.invalidar(p.getId()))); // Sin la versión nueva: se vuelven a leer
+	}
+	
+	private Document documento(Producto producto) {
+		Document documento = new Document();
+		mongoTemplate.getConverter().write(producto, documento);
+		return documento;
+	}
+	
+	// Las mismas excepciones que daría save. Clave duplicada en _id: el upsert no ha encontrado el producto con esa versión
+	private static Throwable traducir(BulkWriteError error) {
+		if (error.getCode() == 11000) {
+			return esIndiceId(error) 
+					? new OptimisticLockingFailureException(error.getMessage()) 
+					: new DuplicateKeyException(error.getMessage());
+		}
+		return new DataIntegrityViolationException(error.getMessage());
+	}
+	
+	// Si el índice que ha rechazado la escritura es el de _id. Con keyPattern en los detalles se mira la clave del índice; si no (el driver
+	// solo copia errInfo) se saca el nombre del índice de su sitio en el mensaje, nunca del valor duplicado, que puede contener cualquier texto
+	private static boolean esIndiceId(BulkWriteError error) {
+		BsonDocument detalles = error.getDetails();
+		if (detalles != null && detalles.isDocument("keyPattern")) {
+			return detalles.getDocument("keyPattern").keySet().equals(Collections.singleton("_id"));
+		}
+		Matcher indice = INDICE_DUPLICADO.matcher(String.valueOf(error.getMessage()));
+		return indice.find() && "_id_".equals(indice.group(1));
+	}
+
+	@Override
+	public Flux<Producto> findAllById(Iterable<String> ids) {
+		return dao.findAllById(ids);
 	}
 
 	@Override
 	public Mono<Void> delete(Producto producto) {
-		return dao.delete(producto);
+		return dao.delete(producto)
+				.doOnTerminate(() -> cacheProductos.invalidar(producto.getId())) // Antes de propagar el fin, para que la respuesta ya no vea el producto borrado
+				.then(fotoService.liberar(producto.getFoto())); // Si era el último producto con esa foto se borra el fichero
 	}
 
 	@Override
@@ -61,17 +227,24 @@ public class ProductoServiceImpl implements ProductoService {
 
 	@Override
 	public Flux<Categoria> findAllCategoria() {
-		return categoriaDao.findAll();
+		return cacheTodasCategorias.get("todas", k -> categoriaDao.findAll().collectList())
+				.flatMapIterable(categorias -> categorias);
 	}
 
 	@Override
 	public Mono<Categoria> findCategoriaById(String id) {
-		return categoriaDao.findById(id);
+		return cacheCategoriasPorId.get(id, categoriaDao::findById);
 	}
 
 	@Override
 	public Mono<Categoria> saveCategoria(Categoria categoria) {
-		return categoriaDao.save(categoria);
+		return categoriaDao.save(categoria)
+				.doOnTerminate(() -> {
+					// Son pocas y cambian muy poco: cualquier cambio invalida todas las caches de categorías
+					cacheCategoriasPorId.invalidarTodo();
+					cacheCategoriasPorNombre.invalidarTodo();
+					cacheTodasCategorias.invalidarTodo();
+				});
 	}
 	
 	@Override
@@ -86,7 +259,16 @@ public class ProductoServiceImpl implements ProductoService {
 
 	@Override
 	public Mono<Categoria> findCategoriaByNombre(String nombre) {
-		return categoriaDao.findByNombre(nombre);
+		return cacheCategoriasPorNombre.get(nombre, categoriaDao::findByNombre);
+	}
+
+	private static List<Categoria> copiar(List<Categoria> categorias) {
+		return categorias.stream().map(Categoria::new).collect(Collectors.toList());
+	}
+
+	@Override
+	public List<CacheReactiva<?, ?>> getCaches() {
+		return Arrays.asList(cacheProductos, cacheCategoriasPorId, cacheCategoriasPorNombre, cacheTodasCategorias);
 	}
 
 	
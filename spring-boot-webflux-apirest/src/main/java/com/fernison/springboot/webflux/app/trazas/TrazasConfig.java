@@ -0,0 +1,35 @@
+package com.fernison.springboot.webflux.app.trazas;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fernison.springboot.webflux.comun.repositorios.InterceptorRepositorio;
+import com.fernison.springboot.webflux.comun.trazas.Span;
+import com.fernison.springboot.webflux.comun.trazas.Trazas;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Configuration
+public class TrazasConfig {
+
+	// Un span de cliente por cada llamada a Mongo de los repositorios (ProductoDao, CategoriaDao), hijo del span de la petición que la hace
+	@Bean
+	public InterceptorRepositorio trazasRepositorios(ObjectProvider<Trazas> trazas) {
+		return (repositorio, invocacion, resultado) -> {
+			String metodo = invocacion.getMethod().getName();
+			Map<String, String> atributos = Map.of("db.system", "mongodb", "db.operation", metodo, "db.repository", repositorio);
+			if (resultado instanceof Mono) {
+				return trazas.getObject().span("mongo " + repositorio + "." + metodo, Span.CLIENTE, atributos, (Mono<?>) resultado);
+			}
+			if (resultado instanceof Flux) {
+				return trazas.getObject().span("mongo " + repositorio + "." + metodo, Span.CLIENTE, atributos, (Flux<?>) resultado);
+			}
+			return resultado;
+		};
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.fernison.springboot.webflux.app.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.server.ServerRequest;
+
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+// ETags fuertes para los productos. Salen del campo version (@Version), que Mongo incrementa en cada guardado, asi que
+// se calculan sin serializar el producto. Si el If-None-Match de la peticion coincide se responde 304 sin cuerpo, y el
+// If-Match de una edicion dice sobre que version ha trabajado el cliente
+public final class ETagUtils {
+
+	private ETagUtils() { }
+
+	public static String etag(Producto producto) {
+		return "\"" + producto.getId() + "-" + producto.getVersion() + "\"";
+	}
+
+	// Version que el cliente espera modificar segun el If-Match (un ETag de etag(Producto)). null si no lo envia o es "*";
+	// -1 si no es un ETag de este producto, con lo que no coincide con ninguna version
+	public static Long versionIfMatch(ServerRequest request, String id) {
+		return versionIfMatch(request.headers().asHttpHeaders().getFirst(HttpHeaders.IF_MATCH), id);
+	}
+
+	// Lo mismo a partir del valor de la cabecera, para los controladores
+	public static Long versionIfMatch(String valor, String id) {
+		if (valor == null || valor.trim().equals("*")) {
+			return null;
+		}
+		String limpio = valor.trim();
+		String prefijo = "\"" + id + "-";
+		if (limpio.startsWith(prefijo) && limpio.endsWith("\"")) {
+			try {
+				return Long.valueOf(limpio.substring(prefijo.length(), limpio.length() - 1));
+			} catch (NumberFormatException e) {
+				// No es un ETag nuestro
+			}
+		}
+		return -1L;
+	}
+
+	// If-None-Match usa la comparacion debil: se ignora el prefijo W/. Puede traer varios ETags separados por comas o "*"
+	public static boolean noModificado(ServerRequest request, String etag) {
+		for (String valor : request.headers().header(HttpHeaders.IF_NONE_MATCH)) {
+			for (String candidato : valor.split(",")) {
+				String limpio = candidato.trim();
+				if (limpio.startsWith("W/")) {
+					limpio = limpio.substring(2);
+				}
+				if (limpio.equals("*") || limpio.equals(etag)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
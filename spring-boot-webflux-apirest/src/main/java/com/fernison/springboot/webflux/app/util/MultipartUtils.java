@@ -0,0 +1,71 @@
+package com.fernison.springboot.webflux.app.util;
+
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.FormFieldPart;
+import org.springframework.http.codec.multipart.Part;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Lectura de formularios multipart en streaming, part a part, sin agruparlos antes en un MultiValueMap. La usan tanto las rutas
+// funcionales (ProductoHandler) como los controladores (ProductoController). Los límites de cada part los pone el lector de CodecConfig
+public final class MultipartUtils {
+
+	// Margen para las cabeceras y campos del multipart al comparar el Content-Length con el tamaño máximo de la foto
+	private static final long MARGEN = 64 * 1024;
+
+	private MultipartUtils() { }
+
+	// Si la petición ya indica un tamaño mayor que el máximo del fichero (más el margen) se puede rechazar sin leerla.
+	// Sin Content-Length (chunked, -1) el límite lo pone el lector de multipart
+	public static boolean superaTamanio(long contentLength, long tamanioMaximo) {
+		return contentLength > tamanioMaximo + MARGEN;
+	}
+
+	// Lee los parts una sola vez y en orden: los campos del formulario se dejan en "campos" y el part "fichero" se pasa a "guardar".
+	// Se leen todos (puede haber campos después del fichero); el resto de parts se descartan. Vacío si no viene el fichero
+	public static <T> Mono<T> leer(Flux<Part> parts, String fichero, Map<String, String> campos, Function<FilePart, Mono<T>> guardar) {
+		return parts
+			.concatMap(part -> {
+				if (part instanceof FormFieldPart) {
+					campos.put(part.name(), ((FormFieldPart) part).value());
+					return Mono.<T>empty();
+				}
+				if (part instanceof FilePart && fichero.equals(part.name())) {
+					return guardar.apply((FilePart) part);
+				}
+				return descartar(part);
+			})
+			.reduce((guardado, otro) -> guardado);
+	}
+
+	// Status con el que responder a un error del lector de multipart: un part que supera el tamaño máximo es un 413; demasiados parts o un
+	// multipart mal formado, un 400. null si el error no es del multipart. El lector de Synchronoss avisa del límite de disco con una
+	// DecodingException anidada que solo se distingue por el mensaje
+	public static HttpStatus status(Throwable e) {
+		Throwable causa = NestedExceptionUtils.getMostSpecificCause(e);
+		if (causa instanceof DataBufferLimitException || String.valueOf(causa.getMessage()).contains("disk usage limit")) {
+			return HttpStatus.PAYLOAD_TOO_LARGE;
+		}
+		if (e instanceof DecodingException) {
+			return HttpStatus.BAD_REQUEST;
+		}
+		return null;
+	}
+
+	// Consume y libera el contenido de un part que no se va a usar
+	private static <T> Mono<T> descartar(Part part) {
+		return part.content()
+				.doOnNext(DataBufferUtils::release)
+				.then(Mono.empty());
+	}
+
+}
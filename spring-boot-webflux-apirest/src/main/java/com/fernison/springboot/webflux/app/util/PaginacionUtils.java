@@ -0,0 +1,42 @@
+package com.fernison.springboot.webflux.app.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+// Utilidades para la paginacion por cursor (keyset). El cursor es el _id del ultimo elemento devuelto codificado en Base64
+// para que el cliente lo trate como un valor opaco. Como el ObjectId de Mongo incluye el timestamp de creacion, ordenar
+// por _id equivale a ordenar por fecha de alta y la consulta usa siempre el indice de _id
+public final class PaginacionUtils {
+
+	public static final String HEADER_NEXT_CURSOR = "X-Next-Cursor";
+
+	private PaginacionUtils() { }
+
+	public static String codificarCursor(String id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// Devuelve el id que contiene el cursor o lanza IllegalArgumentException si el cursor no es valido
+	public static String decodificarCursor(String cursor) {
+		String id = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+		if (!ObjectId.isValid(id)) {
+			throw new IllegalArgumentException("Cursor no valido: " + cursor);
+		}
+		return id;
+	}
+
+	// Ajusta el tamanio de pagina pedido al rango [1, max]
+	public static int tamanioPagina(Integer pedido, int porDefecto, int max) {
+		if (pedido == null || pedido < 1) {
+			return porDefecto;
+		}
+		return Math.min(pedido, max);
+	}
+
+	public static String linkNext(String ruta, String cursor, int tamanio) {
+		return "<" + ruta + "?cursor=" + cursor + "&size=" + tamanio + ">; rel=\"next\"";
+	}
+
+}
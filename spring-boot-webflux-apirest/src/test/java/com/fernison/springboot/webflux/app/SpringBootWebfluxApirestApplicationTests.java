@@ -1,12 +1,15 @@
 package com.fernison.springboot.webflux.app;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
@@ -26,6 +29,7 @@ import reactor.core.publisher.Mono;
 //@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT) // Arrancará un servidor para pruebas en un puerto random
 @AutoConfigureWebTestClient // Si se mockea el servidor es necesario usar esta anotación para cargar el contexto de Spring
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.MOCK) // Mockea el servidor
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class) // Sin esto @Order no se tiene en cuenta
 class SpringBootWebfluxApirestApplicationTests {
 
 	@Autowired
@@ -55,11 +59,29 @@ class SpringBootWebfluxApirestApplicationTests {
 //				});
 //				Assertions.assertTrue(productos.size() == 6); // Así se pueden hacer assertion manuales
 //			})
-			.hasSize(7) // Número de elementos de la lista. Si los ejecuto todos a la vez me sale uno mñas. Entiendo que es porque se ejecutan los tests a la vez. Lo de @Order no hace diferencia
+			.hasSize(6) // Número de elementos de la lista. Los datos se cargan antes de arrancar (CargaInicial) y este test va el primero, antes de los que crean productos
 			;
 	}
 	
 	
+	@Test
+	public void listarPaginadoTest() {
+		client.get()
+			.uri(url + "/pagina?size=2")
+			.accept(MediaType.APPLICATION_JSON)
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().exists("X-Next-Cursor") // Hay más de 2 productos, así que tiene que haber página siguiente
+			.expectBodyList(Producto.class)
+			.hasSize(2);
+		// Un cursor que no es válido devuelve un 400
+		client.get()
+			.uri(url + "/pagina?cursor=no-valido")
+			.accept(MediaType.APPLICATION_JSON)
+			.exchange()
+			.expectStatus().isBadRequest();
+	}
+	
 	@Test
 	//@Order(2)
 	public void verTest() {	
@@ -125,6 +147,44 @@ class SpringBootWebfluxApirestApplicationTests {
 			;
 	}
 
+	@Test
+	public void bulkTest() {
+		Categoria categoria = service.findCategoriaByNombre("C1").block();
+		List<Producto> productos = Arrays.asList(
+				new Producto("bulk 1", 10.0, categoria),
+				new Producto("", 20.0, categoria), // No válido: nombre vacío
+				new Producto("bulk 2", 30.0, categoria));
+		
+		client.post()
+			.uri("/api/v2/productos/bulk")
+			.contentType(MediaType.APPLICATION_JSON)
+			.accept(MediaType.APPLICATION_JSON)
+			.bodyValue(productos)
+			.exchange()
+			.expectStatus().isOk()
+			.expectBody()
+			.jsonPath("$.length()").isEqualTo(3)
+			.jsonPath("$[?(@.indice == 1)].estado").isEqualTo("error")
+			.jsonPath("$[?(@.indice == 0)].estado").isEqualTo("creado")
+			.jsonPath("$[?(@.indice == 2)].estado").isEqualTo("creado");
+	}
+	
+	@Test
+	public void batchGetTest() {
+		Producto tv1 = service.findByNombre("tv 1").block();
+		Producto tv2 = service.findByNombre("tv 2").block();
+		
+		client.post()
+			.uri("/api/v2/productos/batch-get")
+			.contentType(MediaType.APPLICATION_JSON)
+			.accept(MediaType.APPLICATION_JSON)
+			.bodyValue(Arrays.asList(tv1.getId(), tv2.getId(), tv1.getId(), "000000000000000000000000")) // Un id repetido y otro que no existe
+			.exchange()
+			.expectStatus().isOk()
+			.expectBodyList(Producto.class)
+			.hasSize(2);
+	}
+	
 	@Test
 	//@Order(4)
 	public void editarTest() {	
@@ -0,0 +1,71 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fernison.springboot.webflux.app.models.dao.CategoriaDao;
+import com.fernison.springboot.webflux.app.models.dao.ProductoDao;
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Repositorios en memoria para medir el servicio y los handlers sin Mongo. Solo implementan los métodos que usan los benchmarks
+final class DaosEnMemoria {
+
+	private DaosEnMemoria() { }
+
+	static ProductoDao productos(List<Producto> productos) {
+		Map<String, Producto> porId = new LinkedHashMap<String, Producto>();
+		productos.forEach(p -> porId.put(p.getId(), p));
+		return (ProductoDao) Proxy.newProxyInstance(ProductoDao.class.getClassLoader(), new Class<?>[] { ProductoDao.class }, (proxy, metodo, args) -> {
+			switch (metodo.getName()) {
+			case "findAll":
+				return Flux.fromIterable(porId.values());
+			case "findById":
+				return Mono.justOrEmpty(porId.get((String) args[0]));
+			case "findAllById":
+				List<Producto> encontrados = new ArrayList<Producto>();
+				((Iterable<?>) args[0]).forEach(id -> {
+					if (porId.containsKey(id)) {
+						encontrados.add(porId.get(id));
+					}
+				});
+				return Flux.fromIterable(encontrados);
+			case "save":
+			case "insert":
+				return Mono.just(args[0]);
+			case "toString":
+				return "ProductoDao en memoria";
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			default:
+				throw new UnsupportedOperationException(metodo.toString());
+			}
+		});
+	}
+
+	static CategoriaDao categorias(List<Categoria> categorias) {
+		return (CategoriaDao) Proxy.newProxyInstance(CategoriaDao.class.getClassLoader(), new Class<?>[] { CategoriaDao.class }, (proxy, metodo, args) -> {
+			switch (metodo.getName()) {
+			case "findAll":
+				return Flux.fromIterable(categorias);
+			case "toString":
+				return "CategoriaDao en memoria";
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			default:
+				throw new UnsupportedOperationException(metodo.toString());
+			}
+		});
+	}
+
+}
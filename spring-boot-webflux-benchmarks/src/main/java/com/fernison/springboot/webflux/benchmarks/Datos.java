@@ -0,0 +1,47 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+// Productos de prueba parecidos a los que crea la aplicación al arrancar, con foto, miniaturas y versión
+final class Datos {
+
+	private Datos() { }
+
+	static List<Categoria> categorias() {
+		List<Categoria> categorias = new ArrayList<Categoria>();
+		for (int i = 1; i <= 4; i++) {
+			Categoria categoria = new Categoria("C" + i);
+			categoria.setId(new ObjectId().toHexString());
+			categorias.add(categoria);
+		}
+		return categorias;
+	}
+
+	static List<Producto> productos(int cantidad, List<Categoria> categorias) {
+		List<Producto> productos = new ArrayList<Producto>();
+		for (int i = 0; i < cantidad; i++) {
+			Producto producto = new Producto("tv " + i, 100.0 + i, categorias.get(i % categorias.size()));
+			producto.setId(new ObjectId().toHexString());
+			producto.setCreateAt(new Date());
+			producto.setVersion(0L);
+			String foto = String.format("%064x", i) + ".png";
+			producto.setFoto(foto);
+			Map<String, String> miniaturas = new LinkedHashMap<String, String>();
+			miniaturas.put("160", foto.replace(".png", "-160.png"));
+			miniaturas.put("480", foto.replace(".png", "-480.png"));
+			producto.setMiniaturas(miniaturas);
+			productos.add(producto);
+		}
+		return productos;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Igual que el main de JMH (acepta las mismas opciones: java -jar target/benchmarks.jar -h), pero si no se indica otra cosa deja los
+// resultados en JSON en target/jmh-result.json para poder comparar ejecuciones, por ejemplo con JMH Visualizer
+public class EjecutarBenchmarks {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions lineaDeComandos = new CommandLineOptions(args);
+		if (lineaDeComandos.shouldHelp()) {
+			lineaDeComandos.showHelp();
+			return;
+		}
+		if (lineaDeComandos.shouldList()) {
+			new Runner(lineaDeComandos).list();
+			return;
+		}
+		OptionsBuilder opciones = new OptionsBuilder();
+		opciones.parent(lineaDeComandos);
+		if (!lineaDeComandos.getResultFormat().hasValue()) {
+			opciones.resultFormat(ResultFormatType.JSON);
+		}
+		if (!lineaDeComandos.getResult().hasValue()) {
+			opciones.result("target/jmh-result.json");
+		}
+		Options resultado = opciones.build();
+		new Runner(resultado).run();
+	}
+
+}
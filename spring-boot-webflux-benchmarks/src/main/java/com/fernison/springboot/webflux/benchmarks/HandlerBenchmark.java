@@ -0,0 +1,148 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import com.fernison.springboot.webflux.app.RouterFunctionConfig;
+import com.fernison.springboot.webflux.app.handler.ProductoHandler;
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.app.models.services.ProductoServiceImpl;
+import com.fernison.springboot.webflux.app.util.ETagUtils;
+import com.fernison.springboot.webflux.comun.metricas.MetricasRutas;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Handlers funcionales del backend con sus rutas, sin servidor HTTP: WebTestClient llama directamente a la RouterFunction.
+// Incluye el enrutado, los codecs, el handler y el servicio sobre repositorios en memoria
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HandlerBenchmark {
+
+	@Param({ "20", "500" })
+	private int cantidad;
+
+	private WebTestClient client;
+
+	private LocalValidatorFactoryBean validator;
+
+	private List<Producto> productos;
+
+	private List<String> idsLote;
+
+	@Setup
+	public void preparar() {
+		List<Categoria> categorias = Datos.categorias();
+		productos = Datos.productos(cantidad, categorias);
+		idsLote = productos.stream().limit(50).map(Producto::getId).collect(Collectors.toList());
+
+		ProductoServiceImpl service = new ProductoServiceImpl();
+		ReflectionTestUtils.setField(service, "dao", DaosEnMemoria.productos(productos));
+		ReflectionTestUtils.setField(service, "categoriaDao", DaosEnMemoria.categorias(categorias));
+		ReflectionTestUtils.setField(service, "tamanioCacheProductos", 10000L);
+		ReflectionTestUtils.setField(service, "ttlProductos", Duration.ofSeconds(60));
+		ReflectionTestUtils.setField(service, "ttlCategorias", Duration.ofMinutes(10));
+		service.crearCaches();
+
+		validator = new LocalValidatorFactoryBean();
+		validator.afterPropertiesSet();
+
+		// Los valores por defecto de los @Value del handler
+		ProductoHandler handler = new ProductoHandler();
+		ReflectionTestUtils.setField(handler, "service", service);
+		ReflectionTestUtils.setField(handler, "validator", validator);
+		ReflectionTestUtils.setField(handler, "tamanioPorDefecto", 20);
+		ReflectionTestUtils.setField(handler, "tamanioMaximo", 100);
+		ReflectionTestUtils.setField(handler, "tamanioLote", 500);
+		ReflectionTestUtils.setField(handler, "maxIdsBatch", 100);
+
+		// Con las métricas de las rutas, como en la aplicación
+		MetricasRutas metricas = new MetricasRutas();
+		ReflectionTestUtils.setField(metricas, "registry", new SimpleMeterRegistry());
+		client = WebTestClient.bindToRouterFunction(new RouterFunctionConfig().routes(handler, metricas))
+				.webFilter(metricas)
+				.build();
+	}
+
+	@TearDown
+	public void cerrar() {
+		validator.destroy();
+	}
+
+	@Benchmark
+	public byte[] listar() {
+		return client.get().uri("/api/v2/productos")
+				.accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectBody()
+				.returnResult()
+				.getResponseBody();
+	}
+
+	@Benchmark
+	public byte[] ver() {
+		return client.get().uri("/api/v2/productos/{id}", idAleatorio())
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE) // La ruta lo exige
+				.accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectBody()
+				.returnResult()
+				.getResponseBody();
+	}
+
+	// El cliente ya tiene la versión: 304 sin serializar el producto
+	@Benchmark
+	public byte[] verNoModificado() {
+		Producto producto = productos.get(ThreadLocalRandom.current().nextInt(cantidad));
+		return client.get().uri("/api/v2/productos/{id}", producto.getId())
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.accept(MediaType.APPLICATION_JSON)
+				.ifNoneMatch(ETagUtils.etag(producto))
+				.exchange()
+				.expectBody()
+				.returnResult()
+				.getResponseBody();
+	}
+
+	@Benchmark
+	public byte[] batchGet() {
+		return client.post().uri("/api/v2/productos/batch-get")
+				.contentType(MediaType.APPLICATION_JSON)
+				.accept(MediaType.APPLICATION_JSON)
+				.bodyValue(idsLote)
+				.exchange()
+				.expectBody()
+				.returnResult()
+				.getResponseBody();
+	}
+
+	private String idAleatorio() {
+		return productos.get(ThreadLocalRandom.current().nextInt(cantidad)).getId();
+	}
+
+}
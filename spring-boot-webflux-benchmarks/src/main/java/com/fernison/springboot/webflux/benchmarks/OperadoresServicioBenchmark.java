@@ -0,0 +1,81 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fernison.springboot.webflux.app.models.documents.Categoria;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.app.models.services.ProductoServiceImpl;
+
+// Cadenas de operadores de ProductoServiceImpl sobre repositorios en memoria: mide lo que añade Reactor (y la cache) sin la latencia de Mongo
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class OperadoresServicioBenchmark {
+
+	@Param({ "10", "1000" })
+	private int cantidad;
+
+	private ProductoServiceImpl service;
+
+	private List<Producto> productos;
+
+	@Setup
+	public void preparar() {
+		List<Categoria> categorias = Datos.categorias();
+		productos = Datos.productos(cantidad, categorias);
+		service = new ProductoServiceImpl();
+		ReflectionTestUtils.setField(service, "dao", DaosEnMemoria.productos(productos));
+		ReflectionTestUtils.setField(service, "categoriaDao", DaosEnMemoria.categorias(categorias));
+		ReflectionTestUtils.setField(service, "tamanioCacheProductos", 10000L);
+		ReflectionTestUtils.setField(service, "ttlProductos", Duration.ofSeconds(60));
+		ReflectionTestUtils.setField(service, "ttlCategorias", Duration.ofMinutes(10));
+		service.crearCaches();
+	}
+
+	@Benchmark
+	public List<Producto> findAll() {
+		return service.findAll().collectList().block();
+	}
+
+	@Benchmark
+	public List<Producto> findAllConNombreUpperCase() {
+		return service.findAllConNombreUpperCase().collectList().block();
+	}
+
+	// Repite el listado 5000 veces: con muchos productos es el caso más caro de la aplicación
+	@Benchmark
+	public Producto findAllConNombreUpperCaseConRepeat() {
+		return service.findAllConNombreUpperCaseConRepeat().blockLast();
+	}
+
+	// Casi siempre acierta en la cache, como en producción con los productos más vistos
+	@Benchmark
+	public Producto findById() {
+		return service.findById(productos.get(ThreadLocalRandom.current().nextInt(cantidad)).getId()).block();
+	}
+
+	@Benchmark
+	public List<Categoria> findAllCategoria() {
+		return service.findAllCategoria().collectList().block();
+	}
+
+}
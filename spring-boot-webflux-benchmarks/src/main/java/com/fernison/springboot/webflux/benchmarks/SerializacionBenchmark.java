@@ -0,0 +1,78 @@
+package com.fernison.springboot.webflux.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fernison.springboot.webflux.app.models.documents.Producto;
+
+// Coste de Jackson con los documentos del backend y con el DTO del cliente, que es lo que hace cada petición en los dos extremos.
+// El ObjectMapper se configura igual que el que crea Spring Boot
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializacionBenchmark {
+
+	@Param({ "1", "100" })
+	private int cantidad;
+
+	private ObjectMapper mapper;
+
+	private List<Producto> productos;
+
+	private byte[] productoJson;
+
+	private byte[] listaJson;
+
+	@Setup
+	public void preparar() throws Exception {
+		mapper = Jackson2ObjectMapperBuilder.json().build();
+		productos = Datos.productos(cantidad, Datos.categorias());
+		productoJson = mapper.writeValueAsBytes(productos.get(0));
+		listaJson = mapper.writeValueAsBytes(productos);
+	}
+
+	@Benchmark
+	public byte[] serializarProducto() throws Exception {
+		return mapper.writeValueAsBytes(productos.get(0));
+	}
+
+	@Benchmark
+	public byte[] serializarLista() throws Exception {
+		return mapper.writeValueAsBytes(productos);
+	}
+
+	@Benchmark
+	public Producto deserializarProducto() throws Exception {
+		return mapper.readValue(productoJson, Producto.class);
+	}
+
+	@Benchmark
+	public List<Producto> deserializarLista() throws Exception {
+		return mapper.readValue(listaJson, new TypeReference<List<Producto>>() { });
+	}
+
+	// Lo que hace el cliente con cada respuesta del backend
+	@Benchmark
+	public List<com.fernison.springboot.webflux.client.app.dto.Producto> deserializarListaCliente() throws Exception {
+		return mapper.readValue(listaJson, new TypeReference<List<com.fernison.springboot.webflux.client.app.dto.Producto>>() { });
+	}
+
+}
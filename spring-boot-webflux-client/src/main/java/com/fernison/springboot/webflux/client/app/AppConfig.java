@@ -1,21 +1,101 @@
 package com.fernison.springboot.webflux.client.app;
 
+import java.time.Duration;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClient;
+
+import com.fernison.springboot.webflux.client.app.services.LatenciaInstancias;
+import com.fernison.springboot.webflux.client.app.services.ResilienciaBackend;
+import com.fernison.springboot.webflux.comun.trazas.Trazas;
+
+import io.netty.channel.ChannelOption;
+
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
+@LoadBalancerClient(name = "servicio-backend", configuration = LatenciaLoadBalancerConfig.class) // Balanceo por latencia en lugar del round robin por defecto
 public class AppConfig {
 
 	@Value("${config.base.endpoint}")
 	private String url;
-	
+
+	@Value("${config.webclient.max-connections:200}")
+	private int maxConexiones;
+
+	@Value("${config.webclient.pending-acquire-max-count:1000}")
+	private int maxPendientes;
+
+	@Value("${config.webclient.pending-acquire-timeout:5s}")
+	private Duration esperaMaxima;
+
+	@Value("${config.webclient.max-idle-time:30s}")
+	private Duration maxInactividad;
+
+	@Value("${config.webclient.max-life-time:5m}")
+	private Duration maxVida;
+
+	@Value("${config.webclient.evict-interval:30s}")
+	private Duration intervaloLimpieza;
+
+	@Value("${config.webclient.connect-timeout:2s}")
+	private Duration timeoutConexion;
+
+	@Value("${config.webclient.http2:false}")
+	private boolean http2;
+
+	// Pool de conexiones hacia el backend. Reactor Netty mantiene un pool por dirección remota, así que los límites son por instancia del backend.
+	// Las conexiones inactivas o demasiado viejas se cierran en segundo plano para no reutilizar conexiones que el otro extremo ya ha cerrado
+	@Bean(destroyMethod = "dispose")
+	public ConnectionProvider conexionesBackend() {
+		return ConnectionProvider.builder("servicio-backend")
+				.maxConnections(maxConexiones)
+				.pendingAcquireMaxCount(maxPendientes) // Peticiones que pueden esperar a que quede libre una conexión. Si se supera fallan en lugar de acumularse
+				.pendingAcquireTimeout(esperaMaxima)
+				.maxIdleTime(maxInactividad)
+				.maxLifeTime(maxVida)
+				.evictInBackground(intervaloLimpieza)
+				.metrics(true) // Métricas reactor.netty.connection.provider.* (conexiones activas, inactivas y pendientes) en Micrometer
+				.build();
+	}
+
+	// Conector compartido por todos los WebClient que llaman al backend, así todos usan el mismo pool de conexiones
+	@Bean
+	public ReactorClientHttpConnector conectorBackend(ConnectionProvider conexionesBackend) {
+		HttpClient httpClient = HttpClient.create(conexionesBackend)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) timeoutConexion.toMillis());
+		if (http2) {
+			// HTTP/2 sin TLS: se negocia con un upgrade desde HTTP/1.1, así que si el backend no lo soporta se sigue con HTTP/1.1
+			httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+		}
+		return new ReactorClientHttpConnector(httpClient);
+	}
+
 	@Bean
 	@LoadBalanced
-	public WebClient.Builder registrarWebClient() {
-		return WebClient.builder().baseUrl(url); // Crea el Web client con la ruta por defecto a la que se va a conectar. El WebCLient implementa ya el balanceo al usarl LoadBalanced y Builder
+	public WebClient.Builder registrarWebClient(ReactorClientHttpConnector conectorBackend) {
+		return WebClient.builder()
+				.baseUrl(url) // Crea el Web client con la ruta por defecto a la que se va a conectar. El WebCLient implementa ya el balanceo al usarl LoadBalanced y Builder
+				.clientConnector(conectorBackend);
 	}
-	
+
+	// Un único WebClient para toda la aplicación. Construirlo en cada llamada creaba de nuevo los codecs y las estrategias de intercambio en cada petición.
+	// Se construye a partir del builder ya registrado, que a estas alturas ya tiene el filtro de balanceo de @LoadBalanced.
+	// Los filtros del circuit breaker, de la latencia y de las trazas se añaden detrás para que vean la instancia ya elegida por el balanceador
+	@Bean
+	public WebClient webClient(@LoadBalanced WebClient.Builder builder, ResilienciaBackend resiliencia, LatenciaInstancias latencias, Trazas trazas) {
+		return builder.clone()
+				.filter(resiliencia.circuitBreakerPorInstancia())
+				.filter(latencias.registrar())
+				.filter(trazas.propagar(ResilienciaBackend::operacion))
+				.build();
+	}
+
 }
@@ -0,0 +1,35 @@
+package com.fernison.springboot.webflux.client.app;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.RoundRobinLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+import com.fernison.springboot.webflux.client.app.services.InstanciasRegistro;
+import com.fernison.springboot.webflux.client.app.services.LatenciaInstancias;
+import com.fernison.springboot.webflux.client.app.services.LatenciaLoadBalancer;
+import com.fernison.springboot.webflux.client.app.services.RegistroEureka;
+
+// Configuración del balanceador de servicio-backend (ver @LoadBalancerClient en AppConfig). No lleva @Configuration a propósito:
+// Spring Cloud la carga en el contexto propio de cada cliente y si la encontrara el escaneo de componentes se aplicaría a todos
+public class LatenciaLoadBalancerConfig {
+
+	@Bean
+	public ReactorLoadBalancer<ServiceInstance> latenciaLoadBalancer(Environment env, LoadBalancerClientFactory factory, LatenciaInstancias latencias) {
+		String servicio = env.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+		if (!env.getProperty("config.loadbalancer.latencia.enabled", Boolean.class, true)) {
+			return new RoundRobinLoadBalancer(factory.getLazyProvider(servicio, ServiceInstanceListSupplier.class), servicio);
+		}
+		return new LatenciaLoadBalancer(factory.getLazyProvider(servicio, ServiceInstanceListSupplier.class), latencias);
+	}
+
+	// En lugar de la lista con cache de 35s de Spring Cloud LoadBalancer
+	@Bean
+	public ServiceInstanceListSupplier instanciasRegistro(Environment env, RegistroEureka registro) {
+		return new InstanciasRegistro(env.getProperty(LoadBalancerClientFactory.PROPERTY_NAME), registro);
+	}
+
+}
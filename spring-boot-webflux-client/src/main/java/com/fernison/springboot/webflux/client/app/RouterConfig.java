@@ -1,26 +1,46 @@
 package com.fernison.springboot.webflux.client.app;
 
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
+import org.springframework.boot.web.reactive.context.ReactiveWebApplicationContext;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RequestPredicates;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
 import com.fernison.springboot.webflux.client.app.handler.ProductoHandler;
+import com.fernison.springboot.webflux.comun.metricas.MetricasRutas;
 
-@Configuration
-public class RouterConfig {
+// Rutas registradas de forma funcional (registerBean con un Supplier) en lugar de con @Configuration y @Bean, para no procesar anotaciones
+// ni crear el proxy CGLIB al arrancar. Spring Boot lo aplica desde META-INF/spring.factories
+public class RouterConfig implements ApplicationContextInitializer<GenericApplicationContext> {
 	
-	@Bean
-	public RouterFunction<ServerResponse> rutas(ProductoHandler handler) {
+	@Override
+	public void initialize(GenericApplicationContext context) {
+		if (!(context instanceof ReactiveWebApplicationContext)) {
+			return; // Solo en el contexto de la aplicación web (no en el de bootstrap de Spring Cloud si se activa)
+		}
+		// MetricasRutas: latencia, peticiones en curso y errores de cada ruta
+		context.registerBean("rutas", RouterFunction.class, () -> rutas(context.getBean(ProductoHandler.class), context.getBean(MetricasRutas.class)));
+	}
+	
+	public RouterFunction<ServerResponse> rutas(ProductoHandler handler, MetricasRutas metricas) {
 		return RouterFunctions.route(
-			RequestPredicates.GET("/api/client"), handler::listar)
-			.andRoute(RequestPredicates.GET("/api/client/{id}"), handler::ver)
-			.andRoute(RequestPredicates.POST("/api/client"), handler::crear)
-			.andRoute(RequestPredicates.PUT("/api/client/{id}"), handler::editar)
-			.andRoute(RequestPredicates.DELETE("/api/client/{id}"), handler::eliminar)
-			.andRoute(RequestPredicates.POST("/api/client/upload/{id}"), handler::upload);
+			RequestPredicates.GET("/api/client").and(acceptExplicito(MediaType.APPLICATION_NDJSON)), metricas.medir("listarStream", handler::listarStream))
+			.andRoute(RequestPredicates.GET("/api/client"), metricas.medir("listar", handler::listar))
+			.andRoute(RequestPredicates.GET("/api/client/{id}"), metricas.medir("ver", handler::ver))
+			.andRoute(RequestPredicates.POST("/api/client"), metricas.medir("crear", handler::crear))
+			.andRoute(RequestPredicates.PUT("/api/client/{id}"), metricas.medir("editar", handler::editar))
+			.andRoute(RequestPredicates.DELETE("/api/client/{id}"), metricas.medir("eliminar", handler::eliminar))
+			.andRoute(RequestPredicates.POST("/api/client/upload/{id}"), metricas.medir("upload", handler::upload));
+	}
+	
+	// Solo casa si el Accept pide el tipo de forma explícita (no vale "*/*")
+	private static RequestPredicate acceptExplicito(MediaType tipo) {
+		return request -> request.headers().accept().stream()
+				.anyMatch(aceptado -> aceptado.isConcrete() && aceptado.isCompatibleWith(tipo));
 	}
 
 }
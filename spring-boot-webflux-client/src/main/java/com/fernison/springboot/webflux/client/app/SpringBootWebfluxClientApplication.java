@@ -3,14 +3,22 @@ package com.fernison.springboot.webflux.client.app;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import reactor.core.scheduler.Schedulers;
 
 
 @EnableEurekaClient
-@SpringBootApplication
+@SpringBootApplication(scanBasePackages = {"com.fernison.springboot.webflux.client.app", "com.fernison.springboot.webflux.comun"}) // comun: código compartido (ver pom.xml)
 public class SpringBootWebfluxClientApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(SpringBootWebfluxClientApplication.class, args);
+		Schedulers.enableMetrics(); // Métricas de los executors de los schedulers de Reactor (tareas, cola, hilos activos). Antes de que se cree ninguno
+		ConfigurableApplicationContext contexto = SpringApplication.run(SpringBootWebfluxClientApplication.class, args);
+		// Ejecución de entrenamiento del perfil de Maven "cds": termina en cuanto ha arrancado y la JVM vuelca la lista de clases cargadas
+		if (contexto.getEnvironment().getProperty("config.startup.exit-after-start", Boolean.class, false)) {
+			System.exit(SpringApplication.exit(contexto));
+		}
 	}
 
 }
@@ -1,6 +1,9 @@
 package com.fernison.springboot.webflux.client.app.dto;
 
 import java.util.Date;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Producto {
 
@@ -9,7 +12,11 @@ public class Producto {
 	private Double precio;
 	private Date createAt;
 	private String foto;
+	private Map<String, String> miniaturas;
 	private Categoria categoria;
+	// Versión del backend. Solo se lee de sus respuestas, para formar el ETag de los productos que llegan por batch-get
+	@JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
+	private Long version;
 
 	public String getId() {
 		return id;
@@ -51,6 +58,14 @@ public class Producto {
 		this.foto = foto;
 	}
 
+	public Map<String, String> getMiniaturas() {
+		return miniaturas;
+	}
+
+	public void setMiniaturas(Map<String, String> miniaturas) {
+		this.miniaturas = miniaturas;
+	}
+
 	public Categoria getCategoria() {
 		return categoria;
 	}
@@ -59,4 +74,12 @@ public class Producto {
 		this.categoria = categoria;
 	}
 
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 }
@@ -4,12 +4,19 @@ import java.net.URI;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
@@ -17,6 +24,10 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import com.fernison.springboot.webflux.client.app.dto.Producto;
 import com.fernison.springboot.webflux.client.app.services.ProductoService;
 
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Component
@@ -25,6 +36,9 @@ public class ProductoHandler {
 	@Autowired
 	private ProductoService service;
 	
+	@Value("${config.uploads.max-size:50MB}")
+	private DataSize tamanioMaximoSubida;
+	
 	public Mono<ServerResponse> listar(ServerRequest request) {
 		return ServerResponse
 			.ok()
@@ -32,6 +46,14 @@ public class ProductoHandler {
 			.body(service.findAll(), Producto.class);			
 	}
 	
+	// Reenvía el listado en streaming tal y como llega del backend
+	public Mono<ServerResponse> listarStream(ServerRequest request) {
+		return ServerResponse
+			.ok()
+			.contentType(MediaType.APPLICATION_NDJSON)
+			.body(service.findAllStream(), Producto.class);
+	}
+	
 	public Mono<ServerResponse> ver(ServerRequest request) {
 		String id = request.pathVariable("id");
 		return service.findById(id)
@@ -53,8 +75,11 @@ public class ProductoHandler {
 						.bodyValue(pr);
 				})
 				.onErrorResume(error -> {
-					WebClientResponseException errorResponse = (WebClientResponseException)error; // Capturar la excepción que se produce. Podrían ser de otro tipo pero en general
-																								// los errores Web de SpringWebFlux se propagan así
+					if (!(error instanceof WebClientResponseException)) {
+						return errorDeComunicacion(error);
+					}
+					WebClientResponseException errorResponse = (WebClientResponseException)error; // Los errores de respuesta del backend se propagan así. Los de conexión,
+																								// timeout o circuito abierto son de otro tipo y se tratan aparte
 					if (errorResponse.getStatusCode() == HttpStatus.BAD_REQUEST) {
 						return ServerResponse.badRequest()
 							.contentType(MediaType.APPLICATION_JSON)
@@ -93,23 +118,68 @@ public class ProductoHandler {
 			.then(ServerResponse.noContent().build()) // Se usa then ya que delete devuelve un vacío
 			.onErrorResume(error -> doOnError(error));	}
 	
+	// Proxy en streaming: no se interpreta el multipart, se reenvía el cuerpo al backend según va llegando.
+	// Se rechaza antes de empezar si el Content-Length ya supera el máximo, y si no se sabe se cuentan los bytes al pasar
 	public Mono<ServerResponse> upload(ServerRequest request) {
 		String id = request.pathVariable("id");
-		return request.multipartData()
-			.map(multipart -> multipart.toSingleValueMap().get("file")) // Obtiene el part que nos envían. Se usa map porque primwro hay que convertirlo a FilePart
-			.cast(FilePart.class)
-			.flatMap(file -> service.upload(file, id))
+		MediaType tipo = request.headers().contentType().orElse(null);
+		if (tipo == null || !MediaType.MULTIPART_FORM_DATA.isCompatibleWith(tipo) || tipo.getParameter("boundary") == null) {
+			return ServerResponse.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE).build();
+		}
+		long longitud = request.headers().contentLength().orElse(-1);
+		if (longitud > tamanioMaximoSubida.toBytes()) {
+			return demasiadoGrande();
+		}
+		return service.upload(limitar(request.bodyToFlux(DataBuffer.class)), tipo, longitud, id)
 			.flatMap(p -> {
 				return ServerResponse.created(URI.create("/api/client/".concat(p.getId())))
 				.contentType(MediaType.APPLICATION_JSON)
 				.bodyValue(p);
 			})
-			.onErrorResume(this::doOnError); // Otra forma de invocar al método
+			.onErrorResume(error -> esDemasiadoGrande(error) ? demasiadoGrande() : doOnError(error)); // Otra forma de invocar al método
+	}
+	
+	// Corta la subida con DataBufferLimitException en cuanto pasa del máximo
+	private Flux<DataBuffer> limitar(Flux<DataBuffer> cuerpo) {
+		long maximo = tamanioMaximoSubida.toBytes();
+		return Flux.defer(() -> {
+			AtomicLong leidos = new AtomicLong();
+			return cuerpo.handle((buffer, sink) -> {
+				if (leidos.addAndGet(buffer.readableByteCount()) > maximo) {
+					DataBufferUtils.release(buffer);
+					sink.error(new DataBufferLimitException("La subida supera el máximo de " + maximo + " bytes"));
+				} else {
+					sink.next(buffer);
+				}
+			});
+		});
+	}
+	
+	// WebClient envuelve los errores del cuerpo que envía en un WebClientRequestException
+	private boolean esDemasiadoGrande(Throwable error) {
+		for (Throwable causa = error; causa != null; causa = causa.getCause()) {
+			if (causa instanceof DataBufferLimitException) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private Mono<ServerResponse> demasiadoGrande() {
+		Map<String, Object> body = new HashMap<String, Object>();
+		body.put("error", "La foto supera el tamaño máximo de " + tamanioMaximoSubida);
+		body.put("timestamp", new Date());
+		return ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE)
+			.contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(body);
 	}
 	
 	// Trata el error
 	// Su implementación es recibiendo un ServerResponse que se pasa desde los métodos. Creo que esto es más fácil e intuitivo
 	private Mono<ServerResponse> doOnError(Throwable error) {
+		if (!(error instanceof WebClientResponseException)) {
+			return errorDeComunicacion(error);
+		}
 		WebClientResponseException errorResponse = (WebClientResponseException)error;
 		if (errorResponse.getStatusCode() == HttpStatus.NOT_FOUND) {
 			// Así se personaliza el error que se quiere devolver
@@ -123,5 +193,25 @@ public class ProductoHandler {
 			return Mono.error(errorResponse);
 		}
 	}
+	
+	// Errores que no son una respuesta del backend: no se ha podido llegar a él o se ha protegido la llamada
+	private Mono<ServerResponse> errorDeComunicacion(Throwable error) {
+		HttpStatus status;
+		if (error instanceof TimeoutException) {
+			status = HttpStatus.GATEWAY_TIMEOUT;
+		} else if (error instanceof CallNotPermittedException || error instanceof BulkheadFullException) {
+			status = HttpStatus.SERVICE_UNAVAILABLE; // Circuito abierto o demasiadas llamadas en curso a esa operación
+		} else if (error instanceof WebClientRequestException) {
+			status = HttpStatus.BAD_GATEWAY;
+		} else {
+			return Mono.error(error);
+		}
+		Map<String, Object> body = new HashMap<String, Object>();
+		body.put("error", "Servicio no disponible. Error: " + error.getMessage());
+		body.put("timestamp", new Date());
+		return ServerResponse.status(status)
+			.contentType(MediaType.APPLICATION_JSON)
+			.bodyValue(body);
+	}
 
 }
@@ -0,0 +1,118 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.fernison.springboot.webflux.client.app.dto.Producto;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.Sinks;
+
+// Agrupa las búsquedas por id que llegan casi a la vez en una sola llamada a batch-get del backend: se junta lo que llega durante
+// "config.batch.window" o hasta "config.batch.max-size" ids, se hace una petición (una consulta $in en Mongo) y se reparte la respuesta
+@Component
+public class AgrupadorFindById {
+
+	// Varios hilos pueden pedir a la vez: si el sink está ocupado emitiendo desde otro hilo se reintenta
+	private static final Sinks.EmitFailureHandler REINTENTAR_SI_CONCURRENTE = (senial, resultado) -> resultado == Sinks.EmitResult.FAIL_NON_SERIALIZED;
+
+	@Autowired
+	private WebClient client;
+
+	@Autowired
+	private ResilienciaBackend resiliencia;
+
+	@Value("${config.batch.window:5ms}")
+	private Duration ventana;
+
+	@Value("${config.batch.max-size:50}")
+	private int tamanioMaximo;
+
+	@Value("${config.batch.concurrency:16}")
+	private int concurrencia;
+
+	private final Sinks.Many<Pedido> pedidos = Sinks.many().unicast().onBackpressureBuffer();
+
+	private Disposable procesador;
+
+	@PostConstruct
+	public void arrancar() {
+		procesador = pedidos.asFlux()
+				.bufferTimeout(tamanioMaximo, ventana)
+				.onBackpressureBuffer() // bufferTimeout emite por tiempo aunque no haya demanda: los lotes esperan aquí si hay muchos en curso
+				.flatMap(this::resolver, concurrencia)
+				.subscribe();
+	}
+
+	@PreDestroy
+	public void parar() {
+		procesador.dispose();
+	}
+
+	public Mono<Producto> findById(String id) {
+		return Mono.create(sink -> pedidos.emitNext(new Pedido(id, sink), REINTENTAR_SI_CONCURRENTE));
+	}
+
+	// Nunca termina con error para no cortar el flujo de pedidos: los errores se pasan a cada pedido del lote
+	private Mono<Void> resolver(List<Pedido> lote) {
+		List<String> ids = lote.stream().map(pedido -> pedido.id).distinct().collect(Collectors.toList());
+		return resiliencia.proteger(ResilienciaBackend.FIND, client // Es un POST pero solo lee, así que se puede reintentar
+				.post()
+				.uri("/batch-get")
+				.accept(MediaType.APPLICATION_JSON)
+				.contentType(MediaType.APPLICATION_JSON)
+				.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+				.bodyValue(ids)
+				.retrieve()
+				.bodyToFlux(Producto.class)
+				.collectMap(Producto::getId, Function.identity()))
+			.doOnNext(productos -> repartir(lote, productos))
+			.doOnError(error -> lote.forEach(pedido -> pedido.sink.error(error)))
+			.onErrorResume(error -> Mono.empty())
+			.then();
+	}
+
+	// Los ids que no vuelven no existen: se responde igual que un GET por id a un producto que no existe
+	private void repartir(List<Pedido> lote, Map<String, Producto> productos) {
+		for (Pedido pedido : lote) {
+			Producto producto = productos.get(pedido.id);
+			if (producto != null) {
+				pedido.sink.success(producto);
+			} else {
+				pedido.sink.error(WebClientResponseException.create(HttpStatus.NOT_FOUND.value(), HttpStatus.NOT_FOUND.getReasonPhrase(),
+						HttpHeaders.EMPTY, new byte[0], StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	private static class Pedido {
+
+		private final String id;
+
+		private final MonoSink<Producto> sink;
+
+		private Pedido(String id, MonoSink<Producto> sink) {
+			this.id = id;
+			this.sink = sink;
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fernison.springboot.webflux.comun.trazas.Trazas;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Peticiones "hedged" para los GET: si la primera petición no ha respondido tras el retardo configurado (del orden del p95 de la latencia)
+// se lanza una segunda a otra instancia del backend registrada en Eureka y se usa la que conteste antes. La otra se cancela.
+// Solo para operaciones idempotentes. Un presupuesto limita las peticiones extra a un porcentaje de las normales
+@Component
+public class HedgingBackend {
+
+	@Autowired
+	private WebClient client;
+
+	@Autowired
+	private ReactorClientHttpConnector conectorBackend;
+
+	@Autowired
+	private RegistroEureka registro;
+
+	@Autowired
+	private ResilienciaBackend resiliencia;
+
+	@Autowired
+	private LatenciaInstancias latencias;
+
+	@Autowired
+	private Trazas trazas;
+
+	@Value("${config.base.endpoint}")
+	private String url;
+
+	@Value("${config.hedging.enabled:false}")
+	private boolean activo;
+
+	@Value("${config.hedging.delay:100ms}")
+	private Duration retardo;
+
+	// Peticiones extra permitidas por cada petición normal (0.1 = como mucho un 10% más de carga)
+	@Value("${config.hedging.budget:0.1}")
+	private double presupuesto;
+
+	// Peticiones extra que se pueden acumular para una ráfaga
+	@Value("${config.hedging.max-burst:10}")
+	private int rafagaMaxima;
+
+	// Instancia (uri de Eureka) a la que va la segunda petición
+	private static final String ATRIBUTO_DESTINO = HedgingBackend.class.getName() + ".destino";
+
+	// Saldo del presupuesto en milésimas de petición
+	private final AtomicLong saldo = new AtomicLong();
+
+	private WebClient directo;
+
+	private String servicio;
+
+	@PostConstruct
+	public void crearClienteDirecto() {
+		servicio = URI.create(url).getHost(); // Con @LoadBalanced el host de la url es el nombre del servicio en Eureka
+		// Sin balanceo: la instancia de la segunda petición se elige aquí y el primer filtro cambia el host de la url por el suyo. Un único
+		// cliente para todas las instancias, que comparte el pool de conexiones, el circuit breaker por instancia y la medida de latencias,
+		// y propaga la traza igual que la primera
+		directo = WebClient.builder()
+				.baseUrl(url)
+				.clientConnector(conectorBackend)
+				.filter(haciaInstancia())
+				.filter(resiliencia.circuitBreakerPorInstancia())
+				.filter(latencias.registrar())
+				.filter(trazas.propagar(ResilienciaBackend::operacion))
+				.build();
+	}
+
+	// "peticion" construye el GET con una uri relativa a partir del WebClient que recibe
+	public <T> Mono<T> getMono(Function<WebClient, WebClient.RequestHeadersSpec<?>> peticion, Class<T> tipo) {
+		return getMono(peticion, respuesta -> respuesta.bodyToMono(tipo));
+	}
+
+	// Igual, pero "extractor" decide qué se obtiene de la respuesta (por ejemplo un ResponseEntity para ver las cabeceras)
+	public <T> Mono<T> getMono(Function<WebClient, WebClient.RequestHeadersSpec<?>> peticion, Function<WebClient.ResponseSpec, Mono<T>> extractor) {
+		return Mono.defer(() -> {
+			AtomicReference<String> instancia = new AtomicReference<String>();
+			Mono<T> primaria = resiliencia.proteger(ResilienciaBackend.FIND, extractor.apply(peticion.apply(client)
+					.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+					.attribute(ResilienciaBackend.ATRIBUTO_INSTANCIA, instancia)
+					.retrieve()));
+			if (!activo) {
+				return primaria;
+			}
+			ganarSaldo();
+			Mono<T> secundaria = otraInstancia(instancia)
+					.flatMap(destino -> extractor.apply(peticion.apply(directo)
+							.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+							.attribute(ATRIBUTO_DESTINO, destino)
+							.retrieve()))
+					.onErrorResume(e -> Mono.never()); // Si falla la segunda manda la primera, que tiene sus propios timeouts y reintentos
+			return Mono.firstWithSignal(primaria, secundaria); // La primera señal gana (también un error o un vacío de la primaria) y la otra se cancela
+		});
+	}
+
+	public <T> Flux<T> getFlux(Function<WebClient, WebClient.RequestHeadersSpec<?>> peticion, Class<T> tipo) {
+		return Flux.defer(() -> {
+			AtomicReference<String> instancia = new AtomicReference<String>();
+			Flux<T> primaria = resiliencia.proteger(ResilienciaBackend.FIND, peticion.apply(client)
+					.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+					.attribute(ResilienciaBackend.ATRIBUTO_INSTANCIA, instancia)
+					.retrieve()
+					.bodyToFlux(tipo));
+			if (!activo) {
+				return primaria;
+			}
+			ganarSaldo();
+			Flux<T> secundaria = otraInstancia(instancia)
+					.flatMapMany(destino -> peticion.apply(directo)
+							.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+							.attribute(ATRIBUTO_DESTINO, destino)
+							.retrieve()
+							.bodyToFlux(tipo))
+					.onErrorResume(e -> Flux.never());
+			return Flux.firstWithSignal(primaria, secundaria);
+		});
+	}
+
+	// Espera el retardo y devuelve la uri de otra instancia distinta a la de la primera petición.
+	// Si no hay otra instancia o no queda presupuesto no emite nunca, así no compite con la primaria
+	private Mono<URI> otraInstancia(AtomicReference<String> primaria) {
+		return Mono.delay(retardo)
+				.flatMap(t -> registro.getInstances(servicio)
+						.filter(i -> !(i.getHost() + ":" + i.getPort()).equals(primaria.get()))
+						.collectList())
+				.filter(instancias -> !instancias.isEmpty() && gastarSaldo())
+				.map(instancias -> elegir(instancias).getUri())
+				.switchIfEmpty(Mono.never());
+	}
+
+	// Cambia el nombre del servicio de la url por el host y puerto de la instancia elegida, conservando la ruta y la query
+	private ExchangeFilterFunction haciaInstancia() {
+		return (request, next) -> {
+			URI destino = (URI) request.attribute(ATRIBUTO_DESTINO).orElseThrow(() -> new IllegalStateException("Petición sin instancia de destino"));
+			URI uri = UriComponentsBuilder.fromUri(request.url())
+					.scheme(destino.getScheme())
+					.host(destino.getHost())
+					.port(destino.getPort())
+					.build(true)
+					.toUri();
+			return next.exchange(ClientRequest.from(request).url(uri).build());
+		};
+	}
+
+	// La de menor coste según las latencias medidas
+	private ServiceInstance elegir(List<ServiceInstance> instancias) {
+		return instancias.stream()
+				.min(Comparator.comparingDouble(i -> latencias.coste(i.getHost() + ":" + i.getPort())))
+				.get();
+	}
+
+	private void ganarSaldo() {
+		long maximo = rafagaMaxima * 1000L;
+		saldo.updateAndGet(s -> Math.min(s + (long) (presupuesto * 1000), maximo));
+	}
+
+	private boolean gastarSaldo() {
+		long actual;
+		do {
+			actual = saldo.get();
+			if (actual < 1000) {
+				return false;
+			}
+		} while (!saldo.compareAndSet(actual, actual - 1000));
+		return true;
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.util.List;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import reactor.core.publisher.Flux;
+
+// Instancias para el balanceador leídas de RegistroEureka en cada elección. Sustituye a la lista por defecto de Spring Cloud LoadBalancer,
+// que guarda en cache lo que devuelve el cliente de Eureka (35s por defecto) y seguiría mandando peticiones a instancias que ya no existen
+public class InstanciasRegistro implements ServiceInstanceListSupplier {
+
+	private final String servicio;
+
+	private final RegistroEureka registro;
+
+	public InstanciasRegistro(String servicio, RegistroEureka registro) {
+		this.servicio = servicio;
+		this.registro = registro;
+	}
+
+	@Override
+	public String getServiceId() {
+		return servicio;
+	}
+
+	@Override
+	public Flux<List<ServiceInstance>> get() {
+		return registro.getInstances(servicio).collectList().flux();
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+
+import reactor.core.publisher.SignalType;
+
+// Latencia (media móvil exponencial, EWMA) y peticiones en curso de cada instancia del backend, medidas en las respuestas que recibe el cliente.
+// Las usa LatenciaLoadBalancer para mandar menos tráfico a las instancias lentas o saturadas
+@Component
+public class LatenciaInstancias {
+
+	// Peso de cada nueva muestra en la media. Más alto reacciona antes pero es más ruidoso
+	@Value("${config.loadbalancer.latencia.alpha:0.3}")
+	private double alpha;
+
+	// Latencia que se supone a una instancia de la que aún no hay muestras (milisegundos)
+	@Value("${config.loadbalancer.latencia.inicial:50}")
+	private double latenciaInicial;
+
+	// Muestra mínima que se registra cuando la petición falla o la instancia responde 5xx (milisegundos). Una instancia que
+	// falla rápido no debe parecer la más rápida
+	@Value("${config.loadbalancer.latencia.penalizacion:1000}")
+	private double penalizacion;
+
+	private final Map<String, Estadisticas> instancias = new ConcurrentHashMap<String, Estadisticas>();
+
+	// Va después del filtro de @LoadBalanced: la url ya apunta a la instancia elegida.
+	// Mide hasta recibir la respuesta (o el error o el timeout), que es lo que depende de la instancia
+	public ExchangeFilterFunction registrar() {
+		return (request, next) -> {
+			Estadisticas estadisticas = de(ResilienciaBackend.clave(request.url()));
+			return next.exchange(request)
+					.transformDeferred(respuesta -> {
+						long[] inicio = new long[1];
+						boolean[] fallo = new boolean[1];
+						return respuesta
+								.doOnSubscribe(s -> {
+									inicio[0] = System.nanoTime();
+									estadisticas.enCurso.incrementAndGet();
+								})
+								.doOnNext(r -> fallo[0] = r.rawStatusCode() >= 500)
+								.doFinally(senial -> {
+									estadisticas.enCurso.decrementAndGet();
+									double muestra = (System.nanoTime() - inicio[0]) / 1_000_000.0;
+									if (fallo[0] || senial == SignalType.ON_ERROR) {
+										muestra = Math.max(muestra, penalizacion);
+									}
+									estadisticas.registrar(muestra, alpha);
+								});
+					});
+		};
+	}
+
+	// Coste estimado de mandar una petición más a la instancia: lo que tarda de media por las que ya tiene en cola.
+	// Una instancia sin muestras cuenta con la latencia inicial. Así recibe tráfico y se puede medir, pero sus peticiones en
+	// curso también pesan y no se lleva todas las peticiones mientras llegan las primeras respuestas
+	public double coste(String instancia) {
+		Estadisticas estadisticas = instancias.get(instancia);
+		if (estadisticas == null) {
+			return latenciaInicial;
+		}
+		return latencia(estadisticas) * (estadisticas.enCurso.get() + 1);
+	}
+
+	public double latencia(String instancia) {
+		Estadisticas estadisticas = instancias.get(instancia);
+		return estadisticas == null ? latenciaInicial : latencia(estadisticas);
+	}
+
+	private double latencia(Estadisticas estadisticas) {
+		return estadisticas.latencia == 0 ? latenciaInicial : estadisticas.latencia;
+	}
+
+	public int enCurso(String instancia) {
+		Estadisticas estadisticas = instancias.get(instancia);
+		return estadisticas == null ? 0 : estadisticas.enCurso.get();
+	}
+
+	private Estadisticas de(String instancia) {
+		return instancias.computeIfAbsent(instancia, i -> new Estadisticas());
+	}
+
+	private static class Estadisticas {
+
+		private final AtomicInteger enCurso = new AtomicInteger();
+
+		private volatile double latencia; // Milisegundos
+
+		private synchronized void registrar(double muestra, double alpha) {
+			latencia = latencia == 0 ? muestra : latencia + alpha * (muestra - latencia);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+
+import reactor.core.publisher.Mono;
+
+// Balanceo "power of two choices": se cogen dos instancias al azar y se usa la de menor coste (latencia EWMA por peticiones en curso).
+// Comparar solo dos evita que todos los clientes manden a la vez el tráfico a la misma instancia, que es lo que pasaría eligiendo siempre la mejor
+public class LatenciaLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+	private final ObjectProvider<ServiceInstanceListSupplier> proveedor;
+
+	private final LatenciaInstancias latencias;
+
+	public LatenciaLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> proveedor, LatenciaInstancias latencias) {
+		this.proveedor = proveedor;
+		this.latencias = latencias;
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Mono<Response<ServiceInstance>> choose(Request request) {
+		ServiceInstanceListSupplier instancias = proveedor.getIfAvailable(NoopServiceInstanceListSupplier::new);
+		return instancias.get()
+				.next()
+				.map(this::elegir);
+	}
+
+	private Response<ServiceInstance> elegir(List<ServiceInstance> instancias) {
+		if (instancias.isEmpty()) {
+			return new EmptyResponse();
+		}
+		if (instancias.size() == 1) {
+			return new DefaultResponse(instancias.get(0));
+		}
+		ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+		int i = aleatorio.nextInt(instancias.size());
+		int j = aleatorio.nextInt(instancias.size() - 1);
+		if (j >= i) {
+			j++; // Dos instancias distintas
+		}
+		ServiceInstance a = instancias.get(i);
+		ServiceInstance b = instancias.get(j);
+		return new DefaultResponse(coste(a) <= coste(b) ? a : b);
+	}
+
+	private double coste(ServiceInstance instancia) {
+		return latencias.coste(instancia.getHost() + ":" + instancia.getPort());
+	}
+
+}
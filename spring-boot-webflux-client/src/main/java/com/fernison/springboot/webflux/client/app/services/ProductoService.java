@@ -1,6 +1,7 @@
 package com.fernison.springboot.webflux.client.app.services;
 
-import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
 
 import com.fernison.springboot.webflux.client.app.dto.Producto;
 
@@ -11,6 +12,8 @@ public interface ProductoService {
 	
 	public Flux<Producto> findAll();
 	
+	public Flux<Producto> findAllStream();
+	
 	public Mono<Producto> findById(String id);
 	
 	public Mono<Producto> save(Producto producto);
@@ -19,7 +22,7 @@ public interface ProductoService {
 	
 	public Mono<Void> delete(String id);
 	
-	public Mono<Producto> upload(FilePart file, String id);
+	public Mono<Producto> upload(Flux<DataBuffer> multipart, MediaType contentType, long longitud, String id);
 	
 
 }
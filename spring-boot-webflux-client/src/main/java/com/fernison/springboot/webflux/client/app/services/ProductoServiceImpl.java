@@ -1,18 +1,29 @@
 package com.fernison.springboot.webflux.client.app.services;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.client.MultipartBodyBuilder;
-import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import com.fernison.springboot.webflux.client.app.dto.Producto;
+import com.fernison.springboot.webflux.comun.trazas.Span;
+import com.fernison.springboot.webflux.comun.trazas.Trazas;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -21,83 +32,182 @@ import reactor.core.publisher.Mono;
 public class ProductoServiceImpl implements ProductoService {
 
 	@Autowired
-	private WebClient.Builder client;
+	private WebClient client;
+	
+	@Autowired
+	private ResilienciaBackend resiliencia;
+	
+	@Autowired
+	private HedgingBackend hedging;
+	
+	@Autowired
+	private AgrupadorFindById agrupador;
+	
+	@Autowired
+	private Trazas trazas;
+	
+	// Agrupa las búsquedas por id concurrentes en llamadas a batch-get. Solo se agrupan los ids que no están en la cache: los que están
+	// se revalidan con su GET (con hedging) porque un 304 es más barato que volver a pedir el producto
+	@Value("${config.batch.enabled:false}")
+	private boolean agrupar;
+	
+	@Value("${config.stream.prefetch:32}")
+	private int prefetch;
+	
+	@Value("${config.cache.productos.max-size:10000}")
+	private long tamanioCache;
+	
+	@Value("${config.cache.productos.idle:10m}")
+	private Duration inactividadCache;
+	
+	// Última versión recibida de cada producto con su ETag. No se sirve nunca sin preguntar: se revalida con If-None-Match y si el backend
+	// contesta 304 se usa la copia local, así no se serializa ni se transfiere el producto en ningún lado
+	private Cache<String, ProductoCacheado> cache;
+	
+	@PostConstruct
+	public void crearCache() {
+		cache = Caffeine.newBuilder()
+				.maximumSize(tamanioCache)
+				.expireAfterAccess(inactividadCache)
+				.build();
+	}
 	
 	@Override
 	public Flux<Producto> findAll() {
-		return client.build()
+		return hedging.getFlux(webClient -> webClient
 			.get()
-			.accept(MediaType.APPLICATION_JSON)
-			.exchangeToFlux(response -> {
-				return response.bodyToFlux(Producto.class);
-			});
+			.accept(MediaType.APPLICATION_JSON), Producto.class);
+	}
+
+	// Pide el listado como NDJSON. El decoder emite cada producto en cuanto llega su línea, sin esperar al final de la respuesta,
+	// y limitRate acota cuántos elementos se piden por adelantado al backend para que la demanda del consumidor se propague
+	@Override
+	public Flux<Producto> findAllStream() {
+		return resiliencia.proteger(ResilienciaBackend.FIND, client
+			.get()
+			.accept(MediaType.APPLICATION_NDJSON)
+			.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.FIND)
+			.retrieve()
+			.bodyToFlux(Producto.class))
+			.limitRate(prefetch);
 	}
 
 	@Override
 	public Mono<Producto> findById(String id) {
+		ProductoCacheado cacheado = cache.getIfPresent(id);
+		if (agrupar && cacheado == null) {
+			// La llamada a batch-get es compartida por varias peticiones y no lleva la traza de ninguna: el span mide la espera de esta
+			return trazas.span("findById agrupado", Span.INTERNO, Collections.singletonMap("producto.id", id), agrupador.findById(id)
+					.doOnNext(producto -> guardarEnCache(id, producto)));
+		}
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("id", id);
-		return client.build()
-			.get()
-			.uri("/{id}", params)
-			.accept(MediaType.APPLICATION_JSON)
-			.header("Content-Type", MediaType.APPLICATION_JSON.toString()) // Content-Type de la petición. Se pone así solo para los GET. Para el resto se puede usar directamente contentType
-			.retrieve() // Esto sustituye al exchangeToX
-			.bodyToMono(Producto.class);
+		return hedging.getMono(webClient -> { // Si tarda, se repite en otra instancia (ver HedgingBackend)
+				WebClient.RequestHeadersSpec<?> peticion = webClient
+					.get()
+					.uri("/{id}", params)
+					.accept(MediaType.APPLICATION_JSON)
+					.header("Content-Type", MediaType.APPLICATION_JSON.toString()); // Content-Type de la petición. Se pone así solo para los GET. Para el resto se puede usar directamente contentType
+				return cacheado == null ? peticion : peticion.ifNoneMatch(cacheado.etag);
+			}, respuesta -> respuesta.toEntity(Producto.class))
+			.flatMap(respuesta -> {
+				if (respuesta.getStatusCode() == HttpStatus.NOT_MODIFIED && cacheado != null) {
+					return Mono.just(cacheado.producto);
+				}
+				guardarEnCache(id, respuesta);
+				return Mono.justOrEmpty(respuesta.getBody());
+			})
+			.doOnError(WebClientResponseException.NotFound.class, e -> cache.invalidate(id));
+	}
+	
+	// batch-get devuelve una lista, sin ETag por producto. Se forma con el id y la versión igual que el backend (ETagUtils):
+	// si alguna vez no coincide, el backend contesta 200 en lugar de 304 y la cache se corrige sola
+	private void guardarEnCache(String id, Producto producto) {
+		if (producto.getVersion() != null) {
+			cache.put(id, new ProductoCacheado("\"" + producto.getId() + "-" + producto.getVersion() + "\"", producto));
+		}
+	}
+	
+	private void guardarEnCache(String id, ResponseEntity<Producto> respuesta) {
+		String etag = respuesta.getHeaders().getETag();
+		if (etag != null && !etag.startsWith("W/") && respuesta.getBody() != null) { // Solo ETags fuertes: identifican exactamente el contenido
+			cache.put(id, new ProductoCacheado(etag, respuesta.getBody()));
+		} else {
+			cache.invalidate(id);
+		}
 	}
 
 	@Override
 	public Mono<Producto> save(Producto producto) {
-		return client.build()
+		return resiliencia.proteger(ResilienciaBackend.SAVE, client
 			.post()
 			.accept(MediaType.APPLICATION_JSON)
 			.contentType(MediaType.APPLICATION_JSON)
+			.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.SAVE)
 			.bodyValue(producto)
 			.retrieve()
-			.bodyToMono(Producto.class);
+			.bodyToMono(Producto.class));
 	}
 
 	@Override
 	public Mono<Producto> update(Producto producto, String id) {
 		Map<String, Object> params = new HashMap<String, Object>();
 		params.put("id", id);			
-		return client.build()
+		return resiliencia.proteger(ResilienciaBackend.UPDATE, client
 				.put()
 				.uri("/{id}", Collections.singletonMap("id", id)) // Sustituye a la forma en la que lo pasamos en el getById
 				.accept(MediaType.APPLICATION_JSON)
 				.contentType(MediaType.APPLICATION_JSON)
+				.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.UPDATE)
 				.bodyValue(producto)
 				.retrieve()
-				.bodyToMono(Producto.class);
+				.bodyToMono(Producto.class))
+				.doFinally(senial -> cache.invalidate(id));
 	}
 
 	@Override
 	public Mono<Void> delete(String id) {
-		return client.build()
+		return resiliencia.proteger(ResilienciaBackend.DELETE, client
 				.delete()
 				.uri("/{id}", Collections.singletonMap("id", id)) // Sustituye a la forma en la que lo pasamos en el getById
 				.accept(MediaType.APPLICATION_JSON)
+				.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.DELETE)
 				.retrieve()
-				.bodyToMono(Void.class); // Devuelve un void
+				.bodyToMono(Void.class)) // Devuelve un void
+				.doFinally(senial -> cache.invalidate(id));
 	}
 
-	// Este método recoge el file que le pasamos a la peticion y lo prepara para enviárselo al backend
+	// Reenvía al backend el cuerpo multipart tal cual llega, trozo a trozo y sin interpretarlo. Cada trozo se pide a la petición de entrada
+	// solo cuando se ha podido escribir el anterior hacia el backend, así que en memoria solo hay unos pocos trozos por subida.
+	// Al no poder repetirse el cuerpo, la subida no se reintenta
 	@Override
-	public Mono<Producto> upload(FilePart file, String id) {
-		// Obtener file y prepararlo
-		MultipartBodyBuilder parts = new MultipartBodyBuilder();
-		parts.asyncPart("file", file.content(), DataBuffer.class).headers(h -> {
-			h.setContentDispositionFormData("file", file.filename());
-		});
-		// Enviarlo
-		return client.build()
+	public Mono<Producto> upload(Flux<DataBuffer> multipart, MediaType contentType, long longitud, String id) {
+		return resiliencia.proteger(ResilienciaBackend.UPLOAD, client
 			.post()
 			.uri("/upload/{id}", Collections.singletonMap("id", id))
-			.contentType(MediaType.MULTIPART_FORM_DATA)
-			.bodyValue(parts.build())
+			.contentType(contentType) // Incluye el boundary original del multipart
+			.headers(cabeceras -> {
+				if (longitud >= 0) {
+					cabeceras.setContentLength(longitud); // Si se conoce se reenvía, así el backend puede rechazar la subida sin leerla
+				}
+			})
+			.attribute(ResilienciaBackend.ATRIBUTO_OPERACION, ResilienciaBackend.UPLOAD)
+			.body(BodyInserters.fromDataBuffers(multipart))
 			.retrieve()
-			.bodyToMono(Producto.class);
+			.bodyToMono(Producto.class))
+			.doFinally(senial -> cache.invalidate(id));
+	}
+
+	private static class ProductoCacheado {
+
+		private final String etag;
+
+		private final Producto producto;
 
+		private ProductoCacheado(String etag, Producto producto) {
+			this.etag = etag;
+			this.producto = producto;
+		}
 	}
 
 }
@@ -0,0 +1,209 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+// Instancias de cada servicio para el balanceador y el hedging.
+// Sin push se leen de la copia local del registro que mantiene el cliente de Eureka (se actualiza cada eureka.client.registry-fetch-interval-seconds).
+// Con push (config.registro.push.enabled) el cliente se suscribe a los cambios que publica el servidor Eureka (/registro/cambios, Server-Sent Events)
+// y, al recibir uno de un servicio que usa, pide en ese momento sus instancias a Eureka: un alta o una baja se ve en el balanceador en lo que
+// tarda esa petición en lugar de en el siguiente ciclo de refresco. El servidor manda un latido cada pocos segundos: si no llega nada en
+// config.registro.push.ttl la suscripción se da por perdida y se vuelve a la copia local del cliente de Eureka, que sigue actualizándose por su cuenta
+@Component
+public class RegistroEureka {
+
+	private static final Logger log = LoggerFactory.getLogger(RegistroEureka.class);
+
+	private static final ParameterizedTypeReference<ServerSentEvent<String>> EVENTO = new ParameterizedTypeReference<ServerSentEvent<String>>() {};
+
+	@Autowired
+	private ReactiveDiscoveryClient discoveryClient;
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Value("${config.registro.push.enabled:false}")
+	private boolean push;
+
+	@Value("${config.registro.push.url:http://localhost:8761/registro/cambios}")
+	private String urlCambios;
+
+	// La primera de la lista, sin la barra final (http://localhost:8761/eureka)
+	@Value("${eureka.client.serviceUrl.defaultZone:http://localhost:8761/eureka}")
+	private String urlEureka;
+
+	@Value("${config.registro.push.ttl:30s}")
+	private Duration ttl;
+
+	// Servicios usados y sus instancias recibidas por push (null hasta que llega la primera respuesta)
+	private final Map<String, Instancias> servicios = new ConcurrentHashMap<String, Instancias>();
+
+	// Último evento o latido del servidor (System.nanoTime)
+	private volatile long ultimaSenial;
+
+	private WebClient eureka;
+
+	private Disposable suscripcion;
+
+	@PostConstruct
+	public void suscribir() {
+		if (!push) {
+			return;
+		}
+		urlEureka = urlEureka.split(",")[0].trim().replaceAll("/+$", "");
+		eureka = WebClient.builder().build(); // Sin @LoadBalanced: son urls de Eureka, no nombres de servicio
+		suscripcion = eureka.get()
+				.uri(urlCambios)
+				.accept(MediaType.TEXT_EVENT_STREAM)
+				.retrieve()
+				.bodyToFlux(EVENTO)
+				.doOnSubscribe(s -> refrescarTodos()) // Al (re)conectar: lo que haya cambiado mientras no había suscripción
+				.doOnNext(evento -> ultimaSenial = System.nanoTime())
+				.filter(evento -> evento.data() != null && servicios.containsKey(evento.data().toLowerCase()))
+				.doOnNext(evento -> registry.counter("eureka.registro.cambios", "servicio", evento.data().toLowerCase(), "tipo", String.valueOf(evento.event())).increment())
+				.concatMap(evento -> refrescar(evento.data().toLowerCase()))
+				.repeatWhen(fin -> fin.delayElements(Duration.ofSeconds(1))) // El servidor puede cerrar el stream (timeout de la petición asíncrona)
+				.retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30))
+						.doBeforeRetry(fallo -> log.warn("Sin suscripción a los cambios del registro en {}: {}", urlCambios, fallo.failure().toString())))
+				.subscribe();
+	}
+
+	@PreDestroy
+	public void cancelar() {
+		if (suscripcion != null) {
+			suscripcion.dispose();
+		}
+	}
+
+	public Flux<ServiceInstance> getInstances(String servicio) {
+		return Flux.defer(() -> {
+			if (!push) {
+				return discoveryClient.getInstances(servicio);
+			}
+			String clave = servicio.toLowerCase();
+			Instancias instancias = servicios.computeIfAbsent(clave, s -> {
+				refrescar(s).subscribe(); // Primer uso: a partir de ahora se siguen sus cambios
+				return Instancias.VACIO;
+			});
+			if (instancias.recibidas == null || System.nanoTime() - ultimaSenial > ttl.toNanos()) {
+				return discoveryClient.getInstances(servicio);
+			}
+			return Flux.fromIterable(instancias.recibidas);
+		});
+	}
+
+	private void refrescarTodos() {
+		servicios.keySet().forEach(servicio -> refrescar(servicio).subscribe());
+	}
+
+	// GET /eureka/apps/{SERVICIO}. Nunca termina con error: si falla se sigue con lo que había
+	private Mono<Void> refrescar(String servicio) {
+		DistributionSummary tamanio = DistributionSummary.builder("eureka.registro.respuesta")
+				.description("Tamaño de las respuestas de Eureka con las instancias de un servicio")
+				.baseUnit("bytes")
+				.tag("servicio", servicio)
+				.register(registry);
+		Counter fallos = registry.counter("eureka.registro.refrescos.fallidos", "servicio", servicio);
+		return eureka.get()
+				.uri(urlEureka + "/apps/{servicio}", servicio.toUpperCase())
+				.accept(MediaType.APPLICATION_JSON)
+				.exchangeToMono(respuesta -> {
+					if (respuesta.statusCode() == HttpStatus.NOT_FOUND) {
+						return respuesta.releaseBody().thenReturn(new byte[0]); // Ninguna instancia registrada
+					}
+					return respuesta.statusCode().is2xxSuccessful()
+							? respuesta.bodyToMono(byte[].class)
+							: respuesta.createException().flatMap(e -> Mono.<byte[]>error(e));
+				})
+				.timeout(Duration.ofSeconds(5))
+				.doOnNext(cuerpo -> {
+					tamanio.record(cuerpo.length);
+					List<ServiceInstance> lista = cuerpo.length == 0 ? Collections.<ServiceInstance>emptyList() : instancias(servicio, cuerpo);
+					servicios.put(servicio, new Instancias(lista));
+					log.debug("Instancias de {} desde Eureka ({} bytes): {}", servicio, cuerpo.length, lista.size());
+				})
+				.doOnError(e -> {
+					fallos.increment();
+					log.warn("No se han podido refrescar las instancias de {}: {}", servicio, e.toString());
+				})
+				.onErrorResume(e -> Mono.empty())
+				.then();
+	}
+
+	// Solo las UP, como hace el cliente de Eureka. Con una sola instancia Eureka puede devolver un objeto en lugar de un array
+	private List<ServiceInstance> instancias(String servicio, byte[] cuerpo) {
+		JsonNode nodos;
+		try {
+			nodos = mapper.readTree(cuerpo).path("application").path("instance");
+		} catch (IOException e) {
+			throw new IllegalStateException("Respuesta de Eureka no válida para " + servicio, e);
+		}
+		Iterable<JsonNode> elementos = nodos.isArray() ? nodos : Collections.singletonList(nodos);
+		List<ServiceInstance> lista = new ArrayList<ServiceInstance>();
+		for (JsonNode nodo : elementos) {
+			if (!"UP".equals(nodo.path("status").asText())) {
+				continue;
+			}
+			boolean seguro = nodo.path("securePort").path("@enabled").asBoolean(false);
+			int puerto = seguro ? nodo.path("securePort").path("$").asInt() : nodo.path("port").path("$").asInt();
+			Map<String, String> metadatos = new HashMap<String, String>();
+			for (Iterator<Map.Entry<String, JsonNode>> it = nodo.path("metadata").fields(); it.hasNext();) {
+				Map.Entry<String, JsonNode> campo = it.next();
+				metadatos.put(campo.getKey(), campo.getValue().asText());
+			}
+			lista.add(new DefaultServiceInstance(nodo.path("instanceId").asText(), servicio, nodo.path("hostName").asText(), puerto, seguro, metadatos));
+		}
+		return lista;
+	}
+
+	private static class Instancias {
+
+		private static final Instancias VACIO = new Instancias(null);
+
+		private final List<ServiceInstance> recibidas;
+
+		private Instancias(List<ServiceInstance> recibidas) {
+			this.recibidas = recibidas;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+// Protección de las llamadas al backend:
+// - Timeout por operación hasta recibir la respuesta de la instancia
+// - Circuit breaker por instancia del backend (host:puerto ya resuelto por el balanceador)
+// - Bulkhead por operación: limita las llamadas concurrentes y rechaza el resto en lugar de encolarlas
+// - Reintentos con backoff y jitter solo en las operaciones idempotentes. Cada reintento pasa otra vez por el balanceador
+@Component
+public class ResilienciaBackend {
+
+	public static final String FIND = "find";
+	public static final String SAVE = "save";
+	public static final String UPDATE = "update";
+	public static final String DELETE = "delete";
+	public static final String UPLOAD = "upload";
+
+	// Atributo de la petición con el que el filtro sabe qué operación es
+	public static final String ATRIBUTO_OPERACION = ResilienciaBackend.class.getName() + ".operacion";
+
+	// Atributo opcional (AtomicReference<String>) en el que el filtro deja la instancia (host:puerto) a la que ha ido la petición
+	public static final String ATRIBUTO_INSTANCIA = ResilienciaBackend.class.getName() + ".instancia";
+
+	// POST no es idempotente: un reintento podría crear el producto dos veces
+	private static final Set<String> IDEMPOTENTES = new HashSet<String>(Arrays.asList(FIND, UPDATE, DELETE));
+
+	@Autowired
+	private Environment env;
+
+	@Value("${config.resilience.timeout.default:3s}")
+	private Duration timeoutPorDefecto;
+
+	@Value("${config.resilience.bulkhead.default:100}")
+	private int bulkheadPorDefecto;
+
+	@Value("${config.resilience.retry.max-attempts:2}")
+	private int maxReintentos;
+
+	@Value("${config.resilience.retry.min-backoff:100ms}")
+	private Duration backoffMinimo;
+
+	@Value("${config.resilience.retry.max-backoff:1s}")
+	private Duration backoffMaximo;
+
+	@Value("${config.resilience.circuit-breaker.failure-rate:50}")
+	private float porcentajeFallos;
+
+	@Value("${config.resilience.circuit-breaker.sliding-window:20}")
+	private int ventana;
+
+	@Value("${config.resilience.circuit-breaker.minimum-calls:10}")
+	private int llamadasMinimas;
+
+	@Value("${config.resilience.circuit-breaker.wait-open:10s}")
+	private Duration esperaAbierto;
+
+	private CircuitBreakerRegistry circuitBreakers;
+
+	private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+	private final Map<String, Duration> timeouts = new ConcurrentHashMap<String, Duration>();
+
+	@PostConstruct
+	public void crearCircuitBreakers() {
+		circuitBreakers = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+				.failureRateThreshold(porcentajeFallos)
+				.slidingWindowSize(ventana)
+				.minimumNumberOfCalls(llamadasMinimas)
+				.waitDurationInOpenState(esperaAbierto)
+				.permittedNumberOfCallsInHalfOpenState(3)
+				.build());
+	}
+
+	public <T> Mono<T> proteger(String operacion, Mono<T> llamada) {
+		Mono<T> conReintentos = IDEMPOTENTES.contains(operacion) ? llamada.retryWhen(reintentos(e -> true)) : llamada;
+		return conReintentos.transformDeferred(BulkheadOperator.of(bulkhead(operacion))); // El bulkhead engloba todos los intentos
+	}
+
+	// En un Flux solo se reintenta si todavía no ha llegado ningún elemento. Si no, el consumidor recibiría elementos repetidos
+	public <T> Flux<T> proteger(String operacion, Flux<T> llamada) {
+		Flux<T> conReintentos = llamada;
+		if (IDEMPOTENTES.contains(operacion)) {
+			conReintentos = Flux.defer(() -> {
+				AtomicBoolean emitido = new AtomicBoolean();
+				return llamada.doOnNext(elemento -> emitido.set(true))
+						.retryWhen(reintentos(e -> !emitido.get()));
+			});
+		}
+		return conReintentos.transformDeferred(BulkheadOperator.of(bulkhead(operacion)));
+	}
+
+	// Operación de la petición según su atributo. Sin atributo se trata como una lectura
+	public static String operacion(ClientRequest request) {
+		return (String) request.attribute(ATRIBUTO_OPERACION).orElse(FIND);
+	}
+
+	// Se registra después del filtro de @LoadBalanced para ver la instancia real a la que va la petición.
+	// Los 5xx se convierten en error aquí para que cuenten como fallo de la instancia
+	@SuppressWarnings("unchecked")
+	public ExchangeFilterFunction circuitBreakerPorInstancia() {
+		return (request, next) -> {
+			String instancia = clave(request.url());
+			request.attribute(ATRIBUTO_INSTANCIA).ifPresent(referencia -> ((AtomicReference<String>) referencia).set(instancia));
+			CircuitBreaker circuitBreaker = circuitBreakers.circuitBreaker(instancia);
+			String operacion = operacion(request);
+			return next.exchange(request)
+					.flatMap(response -> response.rawStatusCode() >= 500
+							? response.createException().flatMap(e -> Mono.<ClientResponse>error(e))
+							: Mono.just(response))
+					.timeout(timeout(operacion))
+					.transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+		};
+	}
+
+	public static String clave(URI uri) {
+		return uri.getHost() + ":" + uri.getPort();
+	}
+
+	public static boolean esReintentable(Throwable error) {
+		if (error instanceof WebClientResponseException) {
+			int status = ((WebClientResponseException) error).getRawStatusCode();
+			return status == 502 || status == 503 || status == 504; // Un 500 del backend se repetiría igual en otra instancia
+		}
+		return error instanceof TimeoutException
+				|| error instanceof WebClientRequestException // No se ha podido conectar o se ha cortado la conexión
+				|| error instanceof CallNotPermittedException; // Circuito abierto en esa instancia: el reintento puede ir a otra
+	}
+
+	private Retry reintentos(Predicate<Throwable> condicion) {
+		return Retry.backoff(maxReintentos, backoffMinimo)
+				.maxBackoff(backoffMaximo)
+				.jitter(0.5) // Evita que todos los clientes reintenten a la vez
+				.filter(error -> esReintentable(error) && condicion.test(error))
+				.onRetryExhaustedThrow((spec, senial) -> senial.failure()); // Se propaga el error original, no un RetryExhaustedException
+	}
+
+	private Bulkhead bulkhead(String operacion) {
+		return bulkheads.computeIfAbsent(operacion, op -> Bulkhead.of(op, BulkheadConfig.custom()
+				.maxConcurrentCalls(env.getProperty("config.resilience.bulkhead." + op, Integer.class, bulkheadPorDefecto))
+				.maxWaitDuration(Duration.ZERO)
+				.build()));
+	}
+
+	private Duration timeout(String operacion) {
+		return timeouts.computeIfAbsent(operacion, op -> env.getProperty("config.resilience.timeout." + op, Duration.class, timeoutPorDefecto));
+	}
+
+}
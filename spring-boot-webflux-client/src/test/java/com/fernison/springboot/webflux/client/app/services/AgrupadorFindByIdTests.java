@@ -0,0 +1,92 @@
+package com.fernison.springboot.webflux.client.app.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fernison.springboot.webflux.client.app.dto.Producto;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Reparto de la respuesta de batch-get entre las peticiones de un lote, con un backend simulado que responde siempre lo mismo
+class AgrupadorFindByIdTests {
+
+	private final AtomicInteger llamadas = new AtomicInteger();
+
+	private AgrupadorFindById agrupador;
+
+	@AfterEach
+	void parar() {
+		agrupador.parar();
+	}
+
+	@Test
+	void losIdsQueNoVuelvenLleganComoNotFoundACadaPeticion() {
+		arrancar(() -> ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body("[{\"id\":\"a\",\"nombre\":\"A\",\"version\":3},{\"id\":\"b\",\"nombre\":\"B\",\"version\":0}]")
+				.build());
+
+		List<String> resultados = pedir("a", "b", "c", "a", "c");
+
+		assertEquals(Arrays.asList("A", "B", "NotFound", "A", "NotFound"), resultados);
+		assertEquals(1, llamadas.get()); // Un único batch-get para las cinco peticiones
+	}
+
+	@Test
+	void unErrorDelLoteLlegaATodasSusPeticionesYElSiguienteLoteFunciona() {
+		arrancar(() -> ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build());
+
+		assertEquals(Arrays.asList("InternalServerError", "InternalServerError", "InternalServerError"), pedir("a", "b", "c"));
+		assertEquals(Arrays.asList("InternalServerError"), pedir("d")); // El error no ha cortado el flujo de pedidos
+		assertEquals(2, llamadas.get());
+	}
+
+	private void arrancar(Supplier<ClientResponse> respuesta) { // Cada llamada necesita su respuesta: el cuerpo solo se puede leer una vez
+		WebClient client = WebClient.builder()
+				.exchangeFunction(peticion -> {
+					llamadas.incrementAndGet();
+					return Mono.just(respuesta.get());
+				})
+				.build();
+		ResilienciaBackend resiliencia = mock(ResilienciaBackend.class);
+		when(resiliencia.proteger(eq(ResilienciaBackend.FIND), any(Mono.class))).thenAnswer(invocacion -> invocacion.getArgument(1));
+
+		agrupador = new AgrupadorFindById();
+		ReflectionTestUtils.setField(agrupador, "client", client);
+		ReflectionTestUtils.setField(agrupador, "resiliencia", resiliencia);
+		ReflectionTestUtils.setField(agrupador, "ventana", Duration.ofMillis(100)); // Con margen para que todas las peticiones entren en el lote
+		ReflectionTestUtils.setField(agrupador, "tamanioMaximo", 50);
+		ReflectionTestUtils.setField(agrupador, "concurrencia", 4);
+		agrupador.arrancar();
+	}
+
+	// Lanza todas las peticiones a la vez y devuelve, en orden, el nombre del producto o la clase del error de cada una
+	private List<String> pedir(String... ids) {
+		return Flux.fromArray(ids)
+				.flatMapSequential(id -> agrupador.findById(id)
+						.map(Producto::getNombre)
+						.onErrorResume(e -> Mono.just(e.getClass().getSimpleName())))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.fernison.springboot.webflux.comun.cache;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import com.fernison.springboot.webflux.comun.contexto.ContextoReactor;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import reactor.core.publisher.Mono;
+
+// Cache en memoria para Monos, de tamaño acotado y con caducidad (TTL). Se apoya en la AsyncCache de Caffeine, que guarda futuros:
+// si llegan varias peticiones a la vez de una clave que no está en cache, todas esperan al mismo futuro y solo se hace una consulta
+// a Mongo. Los Monos vacíos (no existe) y los errores no se guardan.
+// Los documentos son mutables: la cache guarda su propia copia y cada get devuelve otra (copia), así quien lo recibe puede modificarlo
+// antes de guardarlo sin que lo vean las demás peticiones ni la cache
+public class CacheReactiva<K, V> {
+
+	private final String nombre;
+	private final AsyncCache<K, V> cache;
+	private final UnaryOperator<V> copia;
+	
+	public CacheReactiva(String nombre, long tamanioMaximo, Duration ttl, UnaryOperator<V> copia) {
+		this.nombre = nombre;
+		this.copia = copia;
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(tamanioMaximo)
+				.expireAfterWrite(ttl)
+				.recordStats() // Aciertos, fallos, cargas y expulsiones
+				.buildAsync();
+	}
+	
+	public Mono<V> get(K clave, Function<K, Mono<V>> cargador) {
+		return ContextoReactor.heredar(conContexto -> {
+			// La carga lleva el Context de la petición que la inicia, así la consulta aparece en su traza
+			CompletableFuture<V> futuro = cache.get(clave, (k, executor) -> conContexto.apply(cargador.apply(k)).toFuture());
+			// thenApply crea un futuro dependiente: si un subscriber cancela, no se cancela la carga que comparten los demás
+			return Mono.fromFuture(futuro.thenApply(copia));
+		});
+	}
+	
+	public void put(K clave, V valor) {
+		cache.put(clave, CompletableFuture.completedFuture(copia.apply(valor)));
+	}
+	
+	public void invalidar(K clave) {
+		cache.synchronous().invalidate(clave);
+	}
+	
+	public void invalidarTodo() {
+		cache.synchronous().invalidateAll();
+	}
+	
+	public String getNombre() {
+		return nombre;
+	}
+	
+	public CacheStats getEstadisticas() {
+		return cache.synchronous().stats();
+	}
+	
+	public long getTamanio() {
+		return cache.synchronous().estimatedSize();
+	}
+	
+}
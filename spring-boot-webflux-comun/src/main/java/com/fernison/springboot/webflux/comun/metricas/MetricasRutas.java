@@ -0,0 +1,104 @@
+package com.fernison.springboot.webflux.comun.metricas;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Métricas por ruta funcional. Cada ruta se registra con medir(nombre, handler), que marca la petición con el nombre de la ruta.
+// El WebFilter mide la petición completa, incluida la escritura del cuerpo (en los listados en streaming es casi todo el tiempo):
+// - http.rutas: latencia por ruta y status, con histograma para calcular percentiles en Prometheus
+// - http.rutas.en_curso: peticiones en curso por ruta
+// - http.rutas.errores: respuestas 4xx/5xx y excepciones por ruta y status
+// Varias rutas comparten patrón (el listado JSON, NDJSON y SSE) y así se distinguen, cosa que no hace http.server.requests.
+// Los errores que el handler convierte en respuesta (p. ej. los del backend en el cliente) cuentan por el status que recibe el usuario
+@Component
+public class MetricasRutas implements WebFilter {
+
+	private static final String ATRIBUTO_RUTA = MetricasRutas.class.getName() + ".ruta";
+
+	private static final String ATRIBUTO_ERROR = MetricasRutas.class.getName() + ".error";
+
+	@Autowired
+	private MeterRegistry registry;
+
+	private final Map<String, AtomicInteger> enCurso = new ConcurrentHashMap<String, AtomicInteger>();
+
+	public HandlerFunction<ServerResponse> medir(String ruta, HandlerFunction<ServerResponse> handler) {
+		AtomicInteger contador = enCurso(ruta); // Se registra al montar las rutas para que el gauge exista desde el arranque
+		return request -> {
+			request.attributes().put(ATRIBUTO_RUTA, ruta);
+			contador.incrementAndGet();
+			return handler.handle(request);
+		};
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		long inicio = System.nanoTime();
+		return chain.filter(exchange)
+				.doOnError(error -> exchange.getAttributes().put(ATRIBUTO_ERROR, error))
+				.doFinally(senial -> registrar(exchange, senial, System.nanoTime() - inicio));
+	}
+
+	private void registrar(ServerWebExchange exchange, SignalType senial, long nanos) {
+		String ruta = exchange.getAttribute(ATRIBUTO_RUTA);
+		if (ruta == null) { // No es una ruta funcional (controladores, actuator) o no ha llegado al handler
+			return;
+		}
+		enCurso(ruta).decrementAndGet();
+		Throwable error = exchange.getAttribute(ATRIBUTO_ERROR);
+		String status = status(exchange.getResponse(), senial, error);
+		String excepcion = error == null ? "none" : error.getClass().getSimpleName();
+		Timer.builder("http.rutas")
+				.description("Latencia de las rutas funcionales hasta escribir la respuesta completa")
+				.tags(Tags.of("ruta", ruta, "status", status, "exception", excepcion))
+				.publishPercentileHistogram()
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+		if (error != null || status.startsWith("4") || status.startsWith("5")) {
+			Counter.builder("http.rutas.errores")
+					.description("Respuestas con error de las rutas funcionales")
+					.tags(Tags.of("ruta", ruta, "status", status, "exception", excepcion))
+					.register(registry)
+					.increment();
+		}
+	}
+
+	// Las excepciones se convierten en la respuesta de error después de este filtro: si no hay status todavía será un 500
+	private static String status(ServerHttpResponse response, SignalType senial, Throwable error) {
+		if (senial == SignalType.CANCEL) {
+			return "CANCELADA"; // El cliente ha cerrado la conexión antes de terminar
+		}
+		if (error instanceof ResponseStatusException) {
+			return String.valueOf(((ResponseStatusException) error).getStatus().value());
+		}
+		if (error != null && response.getRawStatusCode() == null) {
+			return "500";
+		}
+		return response.getRawStatusCode() == null ? "200" : String.valueOf(response.getRawStatusCode());
+	}
+
+	private AtomicInteger enCurso(String ruta) {
+		return enCurso.computeIfAbsent(ruta, r -> registry.gauge("http.rutas.en_curso", Tags.of("ruta", r), new AtomicInteger()));
+	}
+
+}
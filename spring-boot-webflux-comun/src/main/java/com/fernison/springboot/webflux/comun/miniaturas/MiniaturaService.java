@@ -0,0 +1,14 @@
+package com.fernison.springboot.webflux.comun.miniaturas;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import reactor.core.publisher.Mono;
+
+public interface MiniaturaService {
+
+	// Genera las miniaturas de la imagen en el mismo directorio que el original y devuelve sus nombres por tamaño ("160" -> "foto-160.png").
+	// Si la imagen no se puede escalar devuelve un mapa vacío: sin miniaturas se sigue mostrando el original
+	public Mono<Map<String, String>> generar(Path original);
+	
+}
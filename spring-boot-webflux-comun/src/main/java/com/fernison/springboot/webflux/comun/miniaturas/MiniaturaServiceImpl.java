@@ -0,0 +1,192 @@
+package com.fernison.springboot.webflux.comun.miniaturas;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+// Escala las fotos subidas a varios tamaños para que los listados no tengan que descargar la imagen original.
+// Escalar es CPU y disco, así que se hace en un scheduler propio con hilos y cola limitados, nunca en el event loop de Netty.
+// Si la cola está llena la tarea se rechaza y el producto se queda sin miniaturas en lugar de acumular trabajo.
+// Antes de decodificar se leen las dimensiones de la cabecera: un PNG de pocos KB puede declarar 50000x50000 píxeles y
+// ocupar gigas en memoria. Las que pasan de config.thumbnails.max-pixels se rechazan y el resto se decodifica submuestreado
+@Service
+public class MiniaturaServiceImpl implements MiniaturaService {
+
+	private static final Logger log = LoggerFactory.getLogger(MiniaturaServiceImpl.class);
+	
+	@Value("${config.thumbnails.sizes:160,480}")
+	private List<Integer> tamanios;
+	
+	@Value("${config.thumbnails.threads:2}")
+	private int hilos;
+	
+	@Value("${config.thumbnails.queue:100}")
+	private int cola;
+	
+	@Value("${config.thumbnails.max-pixels:50000000}")
+	private long maxPixeles;
+	
+	private Scheduler scheduler;
+	
+	@PostConstruct
+	public void init() {
+		scheduler = Schedulers.newBoundedElastic(hilos, cola, "miniaturas");
+	}
+	
+	@PreDestroy
+	public void destroy() {
+		scheduler.dispose();
+	}
+	
+	@Override
+	public Mono<Map<String, String>> generar(Path original) {
+		return Mono.fromCallable(() -> escalarATamanios(original))
+				.subscribeOn(scheduler)
+				.onErrorResume(e -> {
+					log.warn("No se han podido generar las miniaturas de " + original + ": " + e.getMessage());
+					return Mono.just(Collections.emptyMap());
+				});
+	}
+	
+	private Map<String, String> escalarATamanios(Path original) throws IOException {
+		String nombre = original.getFileName().toString();
+		String formato = formato(nombre);
+		Map<String, String> miniaturas = new LinkedHashMap<String, String>();
+		if (formato == null) {
+			return miniaturas; // ImageIO no sabe escribir este formato (p. ej. webp)
+		}
+		BufferedImage imagen = null; // Solo se lee si falta alguna miniatura. Si ya existen (misma foto subida antes) se reutilizan
+		for (Integer tamanio : tamanios) {
+			String nombreMiniatura = nombreMiniatura(nombre, tamanio);
+			Path destino = original.resolveSibling(nombreMiniatura);
+			if (!Files.exists(destino)) {
+				if (imagen == null) {
+					imagen = leer(original);
+					if (imagen == null) {
+						return Collections.emptyMap(); // No es una imagen
+					}
+				}
+				// Se escribe en un temporal y se renombra, para no servir nunca una miniatura a medio escribir
+				Path temporal = Files.createTempFile(original.getParent(), "miniatura-", ".tmp");
+				try {
+					if (!ImageIO.write(escalar(imagen, tamanio, formato), formato, temporal.toFile())) {
+						throw new IOException("No hay writer de ImageIO para " + formato);
+					}
+					Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					Files.deleteIfExists(temporal);
+				}
+			}
+			miniaturas.put(String.valueOf(tamanio), nombreMiniatura);
+		}
+		return miniaturas;
+	}
+	
+	// Lee la imagen sin cargarla a tamaño completo. Como la miniatura mayor es mucho más pequeña que la foto, basta con
+	// leer una de cada "paso" filas y columnas, dejando el doble del tamaño mayor para que escalar tenga margen de calidad.
+	// Devuelve null si ImageIO no reconoce el fichero como imagen
+	private BufferedImage leer(Path original) throws IOException {
+		try (ImageInputStream entrada = ImageIO.createImageInputStream(original.toFile())) {
+			Iterator<ImageReader> readers = entrada == null ? Collections.emptyIterator() : ImageIO.getImageReaders(entrada);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(entrada, true, true);
+				int ancho = reader.getWidth(0);
+				int alto = reader.getHeight(0);
+				if ((long) ancho * alto > maxPixeles) {
+					throw new IOException("La imagen mide " + ancho + "x" + alto + " y supera el máximo de " + maxPixeles + " píxeles");
+				}
+				int paso = Math.max(1, Math.max(ancho, alto) / (2 * Collections.max(tamanios)));
+				ImageReadParam parametros = reader.getDefaultReadParam();
+				parametros.setSourceSubsampling(paso, paso, 0, 0);
+				return reader.read(0, parametros);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	// Reduce la imagen para que su lado mayor mida como mucho "tamanio". Se va reduciendo a la mitad en cada paso, que con 
+	// interpolación bilineal da mucha mejor calidad que un único salto grande. Nunca se amplía
+	private static BufferedImage escalar(BufferedImage imagen, int tamanio, String formato) {
+		double factor = Math.min(1.0, (double) tamanio / Math.max(imagen.getWidth(), imagen.getHeight()));
+		int anchoFinal = Math.max(1, (int) Math.round(imagen.getWidth() * factor));
+		int altoFinal = Math.max(1, (int) Math.round(imagen.getHeight() * factor));
+		int tipo = "jpg".equals(formato) || "bmp".equals(formato) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB; // JPEG y BMP no admiten transparencia
+		BufferedImage actual = imagen;
+		int ancho = imagen.getWidth();
+		int alto = imagen.getHeight();
+		do {
+			ancho = Math.max(anchoFinal, ancho / 2);
+			alto = Math.max(altoFinal, alto / 2);
+			BufferedImage paso = new BufferedImage(ancho, alto, tipo);
+			Graphics2D g = paso.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(actual, 0, 0, ancho, alto, null);
+			g.dispose();
+			actual = paso;
+		} while (ancho != anchoFinal || alto != altoFinal);
+		return actual;
+	}
+	
+	// foto.png -> foto-160.png
+	public static String nombreMiniatura(String nombre, int tamanio) {
+		String extension = StringUtils.getFilenameExtension(nombre);
+		if (extension == null) {
+			return nombre + "-" + tamanio;
+		}
+		return StringUtils.stripFilenameExtension(nombre) + "-" + tamanio + "." + extension;
+	}
+	
+	private static String formato(String nombre) {
+		String extension = StringUtils.getFilenameExtension(nombre);
+		if (extension == null) {
+			return null;
+		}
+		switch (extension.toLowerCase(Locale.ROOT)) {
+			case "jpg":
+			case "jpeg":
+				return "jpg";
+			case "png":
+				return "png";
+			case "gif":
+				return "gif";
+			case "bmp":
+				return "bmp";
+			default:
+				return null;
+		}
+	}
+	
+}
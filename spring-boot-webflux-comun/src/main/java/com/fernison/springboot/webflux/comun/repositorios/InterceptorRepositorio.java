@@ -0,0 +1,13 @@
+package com.fernison.springboot.webflux.comun.repositorios;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+// Decora lo que devuelve cada llamada a un repositorio reactivo (métricas, trazas, marcas para el detector de escaneos...). Basta con
+// declararlo como bean: RepositoriosConfig lo aplica a todos los ReactiveCrudRepository con un único proxy por repositorio
+@FunctionalInterface
+public interface InterceptorRepositorio {
+
+	// "resultado" es lo que ha devuelto el repositorio o el interceptor anterior (por @Order). Se devuelve tal cual si no interesa
+	Object interceptar(String repositorio, MethodInvocation invocacion, Object resultado);
+
+}
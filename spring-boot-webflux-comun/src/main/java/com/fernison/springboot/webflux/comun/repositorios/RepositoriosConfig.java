@@ -0,0 +1,45 @@
+package com.fernison.springboot.webflux.comun.repositorios;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+
+@Configuration
+public class RepositoriosConfig {
+
+	// Envuelve cada repositorio reactivo en un único proxy que llama al repositorio una vez y pasa el resultado por los
+	// InterceptorRepositorio registrados, en el orden de @Order: cada uno envuelve lo que ha devuelto el anterior.
+	// Sin interceptores el repositorio se deja como está
+	@Bean
+	public static BeanPostProcessor interceptoresRepositorios(ObjectProvider<InterceptorRepositorio> interceptores) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (!(bean instanceof ReactiveCrudRepository)) {
+					return bean;
+				}
+				List<InterceptorRepositorio> lista = interceptores.orderedStream().collect(Collectors.toList());
+				if (lista.isEmpty()) {
+					return bean;
+				}
+				ProxyFactory proxy = new ProxyFactory(bean);
+				proxy.addAdvice((MethodInterceptor) invocation -> {
+					Object resultado = invocation.proceed();
+					for (InterceptorRepositorio interceptor : lista) {
+						resultado = interceptor.interceptar(beanName, invocation, resultado);
+					}
+					return resultado;
+				});
+				return proxy.getProxy();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.fernison.springboot.webflux.comun.trazas;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Escribe las trazas en un fichero, una línea por traza con el formato JSON de OTLP (ExportTraceServiceRequest). No necesita red ni
+// un collector en marcha: el fichero se puede cargar después con el receptor otlpjsonfile del OpenTelemetry Collector o enviar a cualquier 
+// backend OTLP. La escritura se hace en un hilo propio con una cola limitada: si se llena se descartan trazas, nunca se bloquea una petición
+@Component
+public class ExportadorOtlp {
+
+	private static final Logger log = LoggerFactory.getLogger(ExportadorOtlp.class);
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Value("${spring.application.name}")
+	private String servicio;
+
+	@Value("${config.tracing.file:./trazas/${spring.application.name}.jsonl}")
+	private String fichero;
+
+	@Value("${config.tracing.queue:10000}")
+	private int tamanioCola;
+
+	private BlockingQueue<List<Span>> cola;
+
+	private final AtomicLong descartadas = new AtomicLong();
+
+	private Thread escritor;
+
+	private volatile boolean activo = true;
+
+	@PostConstruct
+	public void arrancar() {
+		cola = new ArrayBlockingQueue<List<Span>>(tamanioCola);
+		escritor = new Thread(this::escribir, "exportador-trazas");
+		escritor.setDaemon(true);
+		escritor.start();
+	}
+
+	@PreDestroy
+	public void parar() throws InterruptedException {
+		activo = false; // Escribe lo que quede en la cola antes de terminar
+		escritor.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	public void exportar(List<Span> spans) {
+		if (!cola.offer(spans) && descartadas.incrementAndGet() % 1000 == 1) {
+			log.warn("Cola de trazas llena: {} trazas descartadas", descartadas.get());
+		}
+	}
+
+	private void escribir() {
+		Path ruta = Paths.get(fichero);
+		try {
+			if (ruta.getParent() != null) {
+				Files.createDirectories(ruta.getParent());
+			}
+		} catch (IOException e) {
+			log.error("No se puede crear el directorio de trazas {}", ruta.getParent(), e);
+			return;
+		}
+		List<List<Span>> lote = new ArrayList<List<Span>>();
+		while (activo || !cola.isEmpty()) {
+			try {
+				List<Span> traza = cola.poll(1, TimeUnit.SECONDS);
+				if (traza != null) {
+					lote.add(traza);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			cola.drainTo(lote);
+			if (lote.isEmpty()) {
+				continue;
+			}
+			try (BufferedWriter salida = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				for (List<Span> traza : lote) {
+					salida.write(mapper.writeValueAsString(peticionOtlp(traza)));
+					salida.newLine();
+				}
+			} catch (IOException e) {
+				log.error("Error escribiendo las trazas en {}", ruta, e);
+			}
+			lote.clear();
+		}
+	}
+
+	private ObjectNode peticionOtlp(List<Span> spans) {
+		ObjectNode peticion = mapper.createObjectNode();
+		ObjectNode resourceSpans = peticion.putArray("resourceSpans").addObject();
+		atributos(resourceSpans.putObject("resource").putArray("attributes"), Map.of("service.name", servicio));
+		ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+		scopeSpans.putObject("scope").put("name", Trazas.class.getName());
+		ArrayNode lista = scopeSpans.putArray("spans");
+		for (Span span : spans) {
+			ObjectNode json = lista.addObject()
+					.put("traceId", span.getTraceId())
+					.put("spanId", span.getSpanId())
+					.put("name", span.getNombre())
+					.put("kind", span.getTipo())
+					.put("startTimeUnixNano", String.valueOf(span.getInicioEpochNanos())) // Los enteros de 64 bits van como texto en OTLP/JSON
+					.put("endTimeUnixNano", String.valueOf(span.getFinEpochNanos()));
+			if (span.getPadreId() != null) {
+				json.put("parentSpanId", span.getPadreId());
+			}
+			atributos(json.putArray("attributes"), span.getAtributos());
+			if (span.getError() != null) {
+				json.putObject("status").put("code", 2).put("message", span.getError()); // STATUS_CODE_ERROR
+			}
+		}
+		return peticion;
+	}
+
+	private static void atributos(ArrayNode destino, Map<String, String> atributos) {
+		atributos.forEach((clave, valor) -> destino.addObject()
+				.put("key", clave)
+				.putObject("value").put("stringValue", valor));
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.fernison.springboot.webflux.comun.trazas;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Una operación dentro de una traza: la petición recibida, una llamada a otro servicio o una consulta a Mongo.
+// El span en curso viaja en el Context de Reactor (Trazas.CLAVE_CONTEXTO), no en un ThreadLocal, así que sigue a la cadena de operadores
+// aunque cambie de hilo
+public class Span {
+
+	// Tipos de span de OTLP
+	public static final int INTERNO = 1;
+	public static final int SERVIDOR = 2;
+	public static final int CLIENTE = 3;
+
+	private final String traceId;
+
+	private final String spanId;
+
+	private final String padreId; // null si es el primero de la traza
+
+	private volatile String nombre;
+
+	private final int tipo;
+
+	private final TrazaLocal traza;
+
+	private final long inicioEpochNanos;
+
+	private final long inicioNanos;
+
+	private final Map<String, String> atributos = new ConcurrentHashMap<String, String>();
+
+	private volatile long duracionNanos = -1;
+
+	private volatile String error; // null si ha ido bien
+
+	Span(String traceId, String spanId, String padreId, String nombre, int tipo, TrazaLocal traza) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.padreId = padreId;
+		this.nombre = nombre;
+		this.tipo = tipo;
+		this.traza = traza;
+		Instant ahora = Instant.now();
+		this.inicioEpochNanos = TimeUnit.SECONDS.toNanos(ahora.getEpochSecond()) + ahora.getNano();
+		this.inicioNanos = System.nanoTime();
+	}
+
+	public Span atributo(String clave, String valor) {
+		if (valor != null) {
+			atributos.put(clave, valor);
+		}
+		return this;
+	}
+
+	// Por ejemplo para usar el patrón de la ruta, que solo se conoce después de enrutar la petición
+	public void renombrar(String nombre) {
+		this.nombre = nombre;
+	}
+
+	public void error(Throwable error) {
+		this.error = error.getClass().getSimpleName() + ": " + error.getMessage();
+	}
+
+	// Para respuestas 5xx sin excepción
+	public void error(String descripcion) {
+		this.error = descripcion;
+	}
+
+	// Solo cuenta la primera vez
+	boolean finalizar() {
+		if (duracionNanos >= 0) {
+			return false;
+		}
+		duracionNanos = System.nanoTime() - inicioNanos;
+		return true;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	public String getPadreId() {
+		return padreId;
+	}
+
+	public String getNombre() {
+		return nombre;
+	}
+
+	public int getTipo() {
+		return tipo;
+	}
+
+	public Map<String, String> getAtributos() {
+		return atributos;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public long getInicioEpochNanos() {
+		return inicioEpochNanos;
+	}
+
+	public long getFinEpochNanos() {
+		return inicioEpochNanos + Math.max(duracionNanos, 0);
+	}
+
+	public long getDuracionNanos() {
+		return duracionNanos;
+	}
+
+	TrazaLocal getTraza() {
+		return traza;
+	}
+
+}
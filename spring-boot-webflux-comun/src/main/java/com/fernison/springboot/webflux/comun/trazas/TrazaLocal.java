@@ -0,0 +1,51 @@
+package com.fernison.springboot.webflux.comun.trazas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// La parte de una traza que se ejecuta en este servicio: los spans terminados esperan aquí a que termine el span de la petición
+// para decidir si se exporta (muestreo por cola)
+class TrazaLocal {
+
+	// Decisión del muestreo por cabeza: tomada en el primer servicio y propagada en el traceparent
+	private final boolean muestreada;
+
+	private final List<Span> terminados = new ArrayList<Span>();
+
+	private boolean cerrada;
+
+	private boolean exportada;
+
+	TrazaLocal(boolean muestreada) {
+		this.muestreada = muestreada;
+	}
+
+	boolean isMuestreada() {
+		return muestreada;
+	}
+
+	// false si la traza ya está cerrada: el span ha terminado después de la petición (por ejemplo una carga de cache compartida)
+	synchronized boolean agregar(Span span) {
+		if (cerrada) {
+			return false;
+		}
+		terminados.add(span);
+		return true;
+	}
+
+	synchronized List<Span> cerrar() {
+		cerrada = true;
+		List<Span> spans = new ArrayList<Span>(terminados);
+		terminados.clear();
+		return spans;
+	}
+
+	synchronized void marcarExportada() {
+		exportada = true;
+	}
+
+	synchronized boolean isExportada() {
+		return exportada;
+	}
+
+}
@@ -0,0 +1,157 @@
+package com.fernison.springboot.webflux.comun.trazas;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+
+import com.fernison.springboot.webflux.comun.contexto.ContextoReactor;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// Trazas distribuidas con el formato de propagación W3C (cabecera traceparent) y exportación OTLP a fichero.
+// Muestreo:
+// - Por cabeza: el primer servicio de la traza decide con "config.tracing.sample-ratio" y la decisión viaja en el traceparent
+// - Por cola: aunque no esté muestreada, la parte de la traza de este servicio se exporta si la petición ha tardado más de
+//   "config.tracing.tail.latency-threshold" o ha tenido algún error. Hasta que termina la petición los spans solo se guardan en memoria
+// Lo comparten el backend (Reactor 3.3) y el cliente (Reactor 3.4): el Context se lee y se escribe con ContextoReactor, que tiene una versión para cada uno
+@Component
+public class Trazas {
+
+	public static final String CLAVE_CONTEXTO = Span.class.getName();
+
+	public static final String TRACEPARENT = "traceparent";
+
+	private static final Pattern FORMATO_TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+	@Autowired
+	private ExportadorOtlp exportador;
+
+	@Value("${config.tracing.enabled:true}")
+	private boolean activo;
+
+	@Value("${config.tracing.sample-ratio:0.01}")
+	private double proporcion;
+
+	@Value("${config.tracing.tail.latency-threshold:500ms}")
+	private Duration umbralLento;
+
+	@Value("${config.tracing.tail.errors:true}")
+	private boolean conErrores;
+
+	public boolean isActivo() {
+		return activo;
+	}
+
+	// Span de una petición recibida. Continúa la traza del traceparent si viene uno válido; si no, empieza una nueva
+	public Span iniciarServidor(String nombre, String traceparent) {
+		Matcher m = traceparent == null ? null : FORMATO_TRACEPARENT.matcher(traceparent);
+		if (m != null && m.matches()) {
+			boolean muestreada = (Integer.parseInt(m.group(3), 16) & 1) == 1;
+			return new Span(m.group(1), nuevoId(8), m.group(2), nombre, Span.SERVIDOR, new TrazaLocal(muestreada));
+		}
+		boolean muestreada = ThreadLocalRandom.current().nextDouble() < proporcion;
+		return new Span(nuevoId(16), nuevoId(8), null, nombre, Span.SERVIDOR, new TrazaLocal(muestreada));
+	}
+
+	public Span hijo(Span padre, String nombre, int tipo) {
+		return new Span(padre.getTraceId(), nuevoId(8), padre.getSpanId(), nombre, tipo, padre.getTraza());
+	}
+
+	// El Mono se ejecuta dentro de un span hijo del que haya en el Context. Si no hay ninguno (trazas desactivadas, tareas en segundo plano)
+	// se devuelve tal cual
+	public <T> Mono<T> span(String nombre, int tipo, Map<String, String> atributos, Mono<T> mono) {
+		return ContextoReactor.conValor(CLAVE_CONTEXTO, (Span padre) -> {
+			if (padre == null) {
+				return mono;
+			}
+			Span span = hijo(padre, nombre, tipo);
+			atributos.forEach(span::atributo);
+			return ContextoReactor.escribir(mono.doOnError(span::error).doFinally(senial -> terminar(span)), CLAVE_CONTEXTO, span);
+		});
+	}
+
+	public <T> Flux<T> span(String nombre, int tipo, Map<String, String> atributos, Flux<T> flux) {
+		return ContextoReactor.conValorFlux(CLAVE_CONTEXTO, (Span padre) -> {
+			if (padre == null) {
+				return flux;
+			}
+			Span span = hijo(padre, nombre, tipo);
+			atributos.forEach(span::atributo);
+			return ContextoReactor.escribir(flux.doOnError(span::error).doFinally(senial -> terminar(span)), CLAVE_CONTEXTO, span);
+		});
+	}
+
+	// Span de cliente para cada llamada a otro servicio y cabecera traceparent para que ese servicio continúe la traza. Registrado detrás del
+	// filtro de @LoadBalanced, cada intento (reintentos, hedging) tiene su span con la instancia a la que ha ido.
+	// "operacion" da el nombre del span a partir de la petición. El span termina al recibir las cabeceras de la respuesta
+	public ExchangeFilterFunction propagar(Function<ClientRequest, String> operacion) {
+		return (request, next) -> ContextoReactor.conValor(CLAVE_CONTEXTO, (Span padre) -> {
+			if (padre == null) {
+				return next.exchange(request);
+			}
+			Span span = hijo(padre, operacion.apply(request), Span.CLIENTE)
+					.atributo("http.method", request.method().name())
+					.atributo("http.url", request.url().toString())
+					.atributo("net.peer.name", request.url().getHost())
+					.atributo("net.peer.port", String.valueOf(request.url().getPort()));
+			return next.exchange(ClientRequest.from(request).header(TRACEPARENT, traceparent(span)).build())
+					.doOnNext(respuesta -> {
+						span.atributo("http.status_code", String.valueOf(respuesta.rawStatusCode()));
+						if (respuesta.rawStatusCode() >= 500) {
+							span.error("HTTP " + respuesta.rawStatusCode());
+						}
+					})
+					.doOnError(span::error)
+					.doFinally(senial -> terminar(span));
+		});
+	}
+
+	// Al terminar el span de la petición se decide si se exporta su parte de la traza
+	public void terminar(Span span) {
+		if (!span.finalizar()) {
+			return;
+		}
+		TrazaLocal traza = span.getTraza();
+		if (span.getTipo() != Span.SERVIDOR) {
+			if (!traza.agregar(span) && traza.isExportada()) {
+				exportador.exportar(List.of(span)); // Ha terminado después de la petición, pero el resto de la traza sí se ha exportado
+			}
+			return;
+		}
+		List<Span> spans = traza.cerrar();
+		boolean exportar = traza.isMuestreada()
+				|| span.getDuracionNanos() >= umbralLento.toNanos()
+				|| (conErrores && (span.getError() != null || spans.stream().anyMatch(s -> s.getError() != null)));
+		if (exportar) {
+			traza.marcarExportada();
+			spans.add(span);
+			exportador.exportar(spans);
+		}
+	}
+
+	// Cabecera para propagar la traza a otro servicio con el span de la llamada como padre
+	public static String traceparent(Span span) {
+		return "00-" + span.getTraceId() + "-" + span.getSpanId() + (span.getTraza().isMuestreada() ? "-01" : "-00");
+	}
+
+	private static String nuevoId(int bytes) {
+		StringBuilder id = new StringBuilder(bytes * 2);
+		ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+		for (int i = 0; i < bytes; i++) {
+			id.append(Character.forDigit(aleatorio.nextInt(16), 16)).append(Character.forDigit(aleatorio.nextInt(16), 16));
+		}
+		return id.toString();
+	}
+
+}
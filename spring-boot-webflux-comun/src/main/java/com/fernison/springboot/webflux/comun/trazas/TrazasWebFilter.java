@@ -0,0 +1,69 @@
+package com.fernison.springboot.webflux.comun.trazas;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+
+import com.fernison.springboot.webflux.comun.contexto.ContextoReactor;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+// Span de servidor para cada petición, tanto de las rutas funcionales como de los controladores.
+// Va el primero de los filtros para que el span incluya todo lo demás
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TrazasWebFilter implements WebFilter {
+
+	@Autowired
+	private Trazas trazas;
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		if (!trazas.isActivo()) {
+			return chain.filter(exchange);
+		}
+		ServerHttpRequest request = exchange.getRequest();
+		Span span = trazas.iniciarServidor(request.getMethodValue() + " " + request.getPath().value(),
+				request.getHeaders().getFirst(Trazas.TRACEPARENT));
+		span.atributo("http.method", request.getMethodValue())
+			.atributo("http.target", request.getPath().value());
+		return ContextoReactor.escribir(chain.filter(exchange)
+				.doOnError(span::error)
+				.doFinally(senial -> terminar(exchange, span, senial)), Trazas.CLAVE_CONTEXTO, span);
+	}
+
+	private void terminar(ServerWebExchange exchange, Span span, SignalType senial) {
+		Integer status = exchange.getResponse().getRawStatusCode();
+		String patron = patron(exchange);
+		if (patron != null) {
+			span.renombrar(exchange.getRequest().getMethodValue() + " " + patron); // Sin ids en el nombre, para poder agrupar
+		}
+		span.atributo("http.status_code", status == null ? null : String.valueOf(status))
+			.atributo("http.route", patron);
+		if (senial == SignalType.CANCEL) {
+			span.atributo("cancelada", "true"); // El cliente cerró la conexión
+		} else if (status != null && status >= 500 && span.getError() == null) {
+			span.error("HTTP " + status);
+		}
+		trazas.terminar(span);
+	}
+
+	// Patrón de la ruta que ha atendido la petición (/api/v2/productos/{id}, /api/client/{id}), tanto de un controlador como de una ruta funcional
+	private static String patron(ServerWebExchange exchange) {
+		Object patron = exchange.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		if (patron == null) {
+			patron = exchange.getAttribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE);
+		}
+		return patron instanceof PathPattern ? ((PathPattern) patron).getPatternString() : null;
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.fernison.springboot.webflux.comun.contexto;
+
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+// Lectura y escritura del Context de Reactor para el código compartido. Hay una versión por cada Reactor que usan los proyectos,
+// con la misma API: esta para Reactor 3.3 (subscriberContext) y la de src/reactor34 para Reactor 3.4 (deferContextual/contextWrite)
+public final class ContextoReactor {
+
+	private ContextoReactor() { }
+
+	// "cuerpo" recibe el valor de "clave" en el Context de quien se suscribe, o null si no está
+	public static <V, T> Mono<T> conValor(Object clave, Function<V, Mono<T>> cuerpo) {
+		return Mono.subscriberContext().flatMap(contexto -> cuerpo.apply(contexto.getOrDefault(clave, null)));
+	}
+
+	public static <V, T> Flux<T> conValorFlux(Object clave, Function<V, Flux<T>> cuerpo) {
+		return Mono.subscriberContext().flatMapMany(contexto -> cuerpo.apply(contexto.getOrDefault(clave, null)));
+	}
+
+	// Añade "clave" al Context que ven el Mono y lo que hay por encima de él
+	public static <T> Mono<T> escribir(Mono<T> mono, Object clave, Object valor) {
+		return mono.subscriberContext(Context.of(clave, valor));
+	}
+
+	public static <T> Flux<T> escribir(Flux<T> flux, Object clave, Object valor) {
+		return flux.subscriberContext(Context.of(clave, valor));
+	}
+
+	// "cuerpo" recibe una función que pone a otro Mono el Context de quien se suscribe (para Monos que se suscriben fuera de la cadena)
+	public static <T> Mono<T> heredar(Function<UnaryOperator<Mono<T>>, Mono<T>> cuerpo) {
+		return Mono.subscriberContext().flatMap(contexto -> cuerpo.apply(mono -> mono.subscriberContext(contexto)));
+	}
+
+}
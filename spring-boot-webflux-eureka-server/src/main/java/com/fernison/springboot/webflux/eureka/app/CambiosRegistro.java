@@ -0,0 +1,61 @@
+package com.fernison.springboot.webflux.eureka.app;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.netflix.eureka.server.event.EurekaInstanceCanceledEvent;
+import org.springframework.cloud.netflix.eureka.server.event.EurekaInstanceRegisteredEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+// Altas y bajas del registro como Server-Sent Events (GET /registro/cambios): "alta" o "baja" con el nombre de la aplicación.
+// Eureka no avisa a los clientes, que piden los cambios cada eureka.client.registry-fetch-interval-seconds. Con esto un cliente suscrito
+// pide las instancias de esa aplicación en cuanto cambian. También se publican las altas y bajas que llegan replicadas de otro nodo
+// y las expulsiones de instancias que han dejado de renovar. Cada pocos segundos se manda un "latido" para que el cliente sepa que sigue conectado
+@RestController
+public class CambiosRegistro {
+
+	// Eureka publica el evento antes de actualizar el registro: se espera un poco para que quien pregunte ya vea el cambio
+	@Value("${config.registro.push.delay:200ms}")
+	private Duration retardo;
+
+	@Value("${config.registro.push.heartbeat:10s}")
+	private Duration latido;
+
+	private final DirectProcessor<ServerSentEvent<String>> cambios = DirectProcessor.create();
+
+	private final FluxSink<ServerSentEvent<String>> sink = cambios.sink(); // Serializado: los eventos llegan de los hilos de Jersey
+
+	@EventListener
+	public void alta(EurekaInstanceRegisteredEvent evento) {
+		publicar("alta", evento.getInstanceInfo().getAppName());
+	}
+
+	@EventListener
+	public void baja(EurekaInstanceCanceledEvent evento) {
+		publicar("baja", evento.getAppName());
+	}
+
+	@GetMapping(path = "/registro/cambios", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<String>> cambios() {
+		return Flux.merge(
+				cambios.onBackpressureBuffer(1000, BufferOverflowStrategy.DROP_OLDEST), // Un suscriptor lento no frena a los demás
+				Flux.interval(Duration.ZERO, latido).map(n -> ServerSentEvent.<String>builder().event("latido").data("").build()));
+	}
+
+	private void publicar(String tipo, String aplicacion) {
+		ServerSentEvent<String> evento = ServerSentEvent.<String>builder().event(tipo).data(aplicacion).build();
+		Schedulers.parallel().schedule(() -> sink.next(evento), retardo.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+}
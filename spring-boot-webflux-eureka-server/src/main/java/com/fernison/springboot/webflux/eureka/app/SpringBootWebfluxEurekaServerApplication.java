@@ -3,13 +3,18 @@ package com.fernison.springboot.webflux.eureka.app;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.eureka.server.EnableEurekaServer;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @EnableEurekaServer
 @SpringBootApplication
 public class SpringBootWebfluxEurekaServerApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(SpringBootWebfluxEurekaServerApplication.class, args);
+		ConfigurableApplicationContext contexto = SpringApplication.run(SpringBootWebfluxEurekaServerApplication.class, args);
+		// Ejecución de entrenamiento del perfil de Maven "cds": termina en cuanto ha arrancado y la JVM vuelca la lista de clases cargadas
+		if (contexto.getEnvironment().getProperty("config.startup.exit-after-start", Boolean.class, false)) {
+			System.exit(SpringApplication.exit(contexto));
+		}
 	}
 
 }
@@ -0,0 +1,192 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+// Pila local equivalente a la de producción: Mongo embebido, el servidor Eureka, una o varias instancias del backend y el cliente.
+// Cada aplicación se arranca como un proceso aparte a partir del jar de su módulo (mvn package en cada uno), con sus propiedades 
+// de siempre salvo los puertos y la uri de Mongo. La salida de cada proceso queda en <salida>/logs
+class EntornoLocal implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(EntornoLocal.class);
+
+	private static final Pattern INSTANCIA_UP = Pattern.compile("\"status\"\\s*:\\s*\"UP\"");
+
+	private static final Duration ESPERA_ARRANQUE = Duration.ofMinutes(3);
+
+	private final Path modulos;
+
+	private final Path logs;
+
+	private final int puertoMongo;
+
+	private final int backends;
+
+	private final List<Process> procesos = Collections.synchronizedList(new ArrayList<Process>());
+
+	private final HttpClient http = HttpClient.create();
+
+	private MongodExecutable mongo;
+
+	EntornoLocal(Opciones opciones, Path salida) {
+		this.modulos = Path.of(opciones.texto("modulos", "..")).toAbsolutePath().normalize();
+		this.logs = salida.resolve("logs");
+		this.puertoMongo = opciones.entero("mongo-port", 27018); // Distinto del 27017 para no tocar un Mongo local de desarrollo
+		this.backends = opciones.entero("backends", 1);
+	}
+
+	// Devuelve la url del cliente cuando ya responde con datos del backend
+	String arrancar() throws IOException {
+		Files.createDirectories(logs);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close)); // Que no queden procesos sueltos si se interrumpe la prueba
+
+		mongo = arrancarMongo(puertoMongo);
+
+		lanzar("spring-boot-webflux-eureka-server", "eureka-server",
+				"--eureka.server.response-cache-update-interval-ms=1000"); // Los registros nuevos se ven antes
+		esperar("Eureka", () -> estado("http://localhost:8761/eureka/apps") == 200);
+
+		// De una en una: cada instancia borra y vuelve a crear los datos de ejemplo al arrancar
+		for (int i = 0; i < backends; i++) {
+			int puerto = 8080 + i;
+			final int registradas = i + 1;
+			lanzar("spring-boot-webflux-apirest", "apirest-" + puerto,
+					"--server.port=" + puerto,
+					"--spring.data.mongodb.uri=mongodb://localhost:" + puertoMongo + "/webflux",
+					"--config.uploads.path=" + logs.getParent().resolve("fotos-" + puerto).toAbsolutePath() + File.separator,
+					"--eureka.instance.instance-id=servicio-backend:" + puerto,
+					"--eureka.instance.lease-renewal-interval-in-seconds=5");
+			esperar("backend en el puerto " + puerto, () -> instanciasUp("SERVICIO-BACKEND") >= registradas);
+		}
+
+		lanzar("spring-boot-webflux-client", "client",
+				"--eureka.client.registry-fetch-interval-seconds=5");
+		String url = "http://localhost:8090";
+		esperar("cliente", () -> estado(url + "/api/client") == 200); // 200 cuando ya ha encontrado el backend en Eureka
+		return url;
+	}
+
+	@Override
+	public synchronized void close() {
+		List<Process> aParar = new ArrayList<Process>(procesos);
+		Collections.reverse(aParar); // Primero el cliente y al final Eureka
+		for (Process proceso : aParar) {
+			proceso.destroy();
+			try {
+				if (!proceso.waitFor(20, TimeUnit.SECONDS)) {
+					proceso.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				proceso.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		procesos.clear();
+		if (mongo != null) {
+			mongo.stop();
+			mongo = null;
+		}
+	}
+
+	static MongodExecutable arrancarMongo(int puerto) throws IOException {
+		log.info("Arrancando Mongo embebido en el puerto {}", puerto);
+		MongodExecutable mongo = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+				.version(Version.Main.PRODUCTION)
+				.net(new Net("localhost", puerto, Network.localhostIsIPv6()))
+				.build());
+		mongo.start();
+		return mongo;
+	}
+
+	private void lanzar(String modulo, String nombre, String... propiedades) throws IOException {
+		Path jar = modulos.resolve(modulo).resolve("target").resolve(modulo + "-0.0.1-SNAPSHOT.jar");
+		if (!Files.exists(jar)) {
+			throw new IllegalStateException("No existe " + jar + ". Hay que ejecutar antes mvn package en " + modulo);
+		}
+		List<String> comando = new ArrayList<String>(Arrays.asList(
+				Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-jar", jar.toString()));
+		comando.addAll(Arrays.asList(propiedades));
+		File salida = logs.resolve(nombre + ".log").toFile();
+		log.info("Arrancando {} (salida en {})", nombre, salida);
+		procesos.add(new ProcessBuilder(comando)
+				.redirectErrorStream(true)
+				.redirectOutput(salida)
+				.start());
+	}
+
+	private void esperar(String que, BooleanSupplier listo) {
+		long limite = System.nanoTime() + ESPERA_ARRANQUE.toNanos();
+		while (!listo.getAsBoolean()) {
+			if (System.nanoTime() > limite) {
+				throw new IllegalStateException(que + " no está listo tras " + ESPERA_ARRANQUE.getSeconds() + "s. Revisar los logs en " + logs);
+			}
+			for (Process proceso : procesos) {
+				if (!proceso.isAlive()) {
+					throw new IllegalStateException("Un proceso ha terminado durante el arranque. Revisar los logs en " + logs);
+				}
+			}
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrumpido esperando a " + que);
+			}
+		}
+		log.info("{} listo", que);
+	}
+
+	// 0 si no responde
+	private int estado(String url) {
+		try {
+			return http.get().uri(url)
+					.responseSingle((respuesta, cuerpo) -> cuerpo.then(Mono.just(respuesta.status().code())))
+					.block(Duration.ofSeconds(5));
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	private int instanciasUp(String aplicacion) {
+		try {
+			String registro = http.headers(h -> h.set("Accept", "application/json"))
+					.get().uri("http://localhost:8761/eureka/apps/" + aplicacion)
+					.responseContent()
+					.aggregate()
+					.asString()
+					.block(Duration.ofSeconds(5));
+			int up = 0;
+			Matcher m = INSTANCIA_UP.matcher(registro == null ? "" : registro);
+			while (m.find()) {
+				up++;
+			}
+			return up;
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+}
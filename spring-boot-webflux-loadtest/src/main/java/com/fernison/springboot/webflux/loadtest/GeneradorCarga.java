@@ -0,0 +1,71 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Modelo abierto: las peticiones salen a una tasa constante sin esperar a que terminen las anteriores, como los usuarios reales.
+// Si el sistema se satura las peticiones se acumulan en curso en lugar de frenar al generador (que es lo que oculta la saturación en un
+// modelo cerrado). Para no agotar la memoria del generador hay un máximo de peticiones en curso: las que lo superan se cuentan como descartadas
+class GeneradorCarga {
+
+	private final List<Operacion> mezcla;
+
+	private final Resultados resultados;
+
+	private final int maxEnCurso;
+
+	private final Duration timeout;
+
+	private final AtomicInteger enCurso = new AtomicInteger();
+
+	GeneradorCarga(List<Operacion> mezcla, Resultados resultados, int maxEnCurso, Duration timeout) {
+		this.mezcla = mezcla;
+		this.resultados = resultados;
+		this.maxEnCurso = maxEnCurso;
+		this.timeout = timeout;
+	}
+
+	// Bloquea el hilo que llama durante toda la prueba y luego espera a que terminen las peticiones en curso
+	void ejecutar(double tasa, Duration duracion) {
+		long inicio = System.nanoTime();
+		long fin = inicio + duracion.toNanos();
+		double intervalo = 1_000_000_000d / tasa;
+		for (long n = 0; ; n++) {
+			long programada = inicio + (long) (n * intervalo); // Se calcula desde el inicio para que los retrasos no se acumulen
+			if (programada >= fin) {
+				break;
+			}
+			long espera = programada - System.nanoTime();
+			if (espera > 0) {
+				LockSupport.parkNanos(espera);
+			}
+			lanzar(mezcla.get(ThreadLocalRandom.current().nextInt(mezcla.size())), programada);
+		}
+		long limite = System.nanoTime() + timeout.plusSeconds(5).toNanos();
+		while (enCurso.get() > 0 && System.nanoTime() < limite) {
+			LockSupport.parkNanos(10_000_000);
+		}
+	}
+
+	int getEnCurso() {
+		return enCurso.get();
+	}
+
+	private void lanzar(Operacion operacion, long programada) {
+		if (enCurso.get() >= maxEnCurso) {
+			resultados.descartada(operacion, programada);
+			return;
+		}
+		enCurso.incrementAndGet();
+		operacion.ejecutar()
+				.timeout(timeout)
+				.doFinally(senial -> enCurso.decrementAndGet())
+				.subscribe(
+						codigo -> resultados.respuesta(operacion, programada, codigo),
+						error -> resultados.fallo(operacion, programada));
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.flapdoodle.embed.mongo.MongodExecutable;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+// Tiempo hasta la primera petición servida de cada módulo: se arranca la aplicación como proceso aparte y se mide desde que se lanza
+// la JVM hasta la primera respuesta HTTP. Es lo que se paga en cada instancia nueva al escalar. spring-boot-reactor no es un servidor:
+// se mide hasta que termina.
+//
+//   java -Dloader.main=com.fernison.springboot.webflux.loadtest.MedirArranque -jar target/loadtest.jar --runs=5
+//
+// Opciones (--clave=valor):
+//   modulos      Directorio con los módulos del proyecto (..)
+//   apps         Módulos que se miden (reactor,webflux,apirest,client,eureka-server)
+//   modes        jar: java -jar del jar ejecutable (mvn package).
+//                cds: target/cds con el archivo de clases compartidas y el perfil arranque-rapido (mvn package -Pcds) (jar,cds)
+//   runs         Arranques por módulo y modo. El primero no se cuenta: calienta la cache de disco del sistema (5)
+//   mongo-port   Puerto del Mongo embebido que usan webflux y apirest (27018)
+//   timeout      Espera máxima de cada arranque (2m)
+//   output       Directorio de resultados (target/arranque)
+//
+// Cada módulo se arranca solo, sin Eureka ni el resto de la pila: el backend y el cliente no llegan a registrarse, igual en los dos modos.
+// Deja en el directorio de salida cada medida (arranques.csv), el resumen (resumen.txt) y la salida de cada proceso en logs/
+public class MedirArranque {
+
+	private static final Logger log = LoggerFactory.getLogger(MedirArranque.class);
+
+	private static final List<Aplicacion> APLICACIONES = Arrays.asList(
+			new Aplicacion("reactor", "spring-boot-reactor", "com.fernison.springboot.reactor.app.SpringBootReactorApplication", null),
+			new Aplicacion("webflux", "spring-boot-webflux", "com.fernison.springboot.webflux.app.SpringBootWebfluxApplication",
+					"http://localhost:8080/listar"),
+			new Aplicacion("apirest", "spring-boot-webflux-apirest", "com.fernison.springboot.webflux.app.SpringBootWebfluxApirestApplication",
+					"http://localhost:8080/api/v2/productos"),
+			new Aplicacion("client", "spring-boot-webflux-client", "com.fernison.springboot.webflux.client.app.SpringBootWebfluxClientApplication",
+					"http://localhost:8090/actuator/health"), // Sus rutas necesitan el backend
+			new Aplicacion("eureka-server", "spring-boot-webflux-eureka-server", "com.fernison.springboot.webflux.eureka.app.SpringBootWebfluxEurekaServerApplication",
+					"http://localhost:8761/eureka/apps"));
+
+	private final Path modulos;
+
+	private final Path logs;
+
+	private final Duration timeout;
+
+	private final String uriMongo;
+
+	private final HttpClient http = HttpClient.create();
+
+	private MedirArranque(Opciones opciones, Path salida) {
+		this.modulos = Path.of(opciones.texto("modulos", "..")).toAbsolutePath().normalize();
+		this.logs = salida.resolve("logs");
+		this.timeout = opciones.duracion("timeout", Duration.ofMinutes(2));
+		this.uriMongo = "mongodb://localhost:" + opciones.entero("mongo-port", 27018) + "/webflux";
+	}
+
+	public static void main(String[] args) throws Exception {
+		Opciones opciones = new Opciones(args);
+		Path salida = Path.of(opciones.texto("output", "target/arranque"));
+		Files.createDirectories(salida.resolve("logs"));
+		List<String> apps = Arrays.asList(opciones.texto("apps", "reactor,webflux,apirest,client,eureka-server").split(","));
+		List<String> modos = Arrays.asList(opciones.texto("modes", "jar,cds").split(","));
+		int arranques = opciones.entero("runs", 5);
+
+		MedirArranque medir = new MedirArranque(opciones, salida);
+		MongodExecutable mongo = EntornoLocal.arrancarMongo(opciones.entero("mongo-port", 27018));
+		Map<String, List<Long>> medidas = new LinkedHashMap<String, List<Long>>();
+		try (PrintStream csv = new PrintStream(salida.resolve("arranques.csv").toFile(), "UTF-8")) {
+			csv.println("app,modo,arranque,ms");
+			for (Aplicacion app : APLICACIONES) {
+				if (!apps.contains(app.nombre)) {
+					continue;
+				}
+				for (String modo : modos) {
+					List<Long> tiempos = new ArrayList<Long>();
+					for (int i = 0; i <= arranques; i++) {
+						long ms = medir.arrancar(app, modo, i);
+						if (i > 0) {
+							tiempos.add(ms);
+							csv.println(app.nombre + "," + modo + "," + i + "," + ms);
+						}
+						log.info("{} ({}) arranque {}: {} ms{}", app.nombre, modo, i, ms, i == 0 ? " (no se cuenta)" : "");
+					}
+					medidas.put(app.nombre + " (" + modo + ")", tiempos);
+				}
+			}
+		} finally {
+			mongo.stop();
+		}
+
+		try (PrintStream resumen = new PrintStream(salida.resolve("resumen.txt").toFile(), "UTF-8")) {
+			for (PrintStream out : new PrintStream[] { System.out, resumen }) {
+				out.printf("%n%-28s %8s %8s %8s%n", "Tiempo hasta la 1ª petición", "min", "mediana", "max");
+				medidas.forEach((nombre, tiempos) -> {
+					List<Long> ordenados = new ArrayList<Long>(tiempos);
+					Collections.sort(ordenados);
+					out.printf("%-28s %6d ms %6d ms %6d ms%n", nombre,
+							ordenados.get(0), ordenados.get(ordenados.size() / 2), ordenados.get(ordenados.size() - 1));
+				});
+			}
+		}
+	}
+
+	// Milisegundos desde que se lanza el proceso hasta la primera respuesta HTTP (o hasta que termina, si no tiene url)
+	private long arrancar(Aplicacion app, String modo, int numero) throws IOException, InterruptedException {
+		List<String> comando = new ArrayList<String>();
+		comando.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		Path directorio = modulos.resolve(app.modulo).resolve("target");
+		if ("cds".equals(modo)) {
+			directorio = directorio.resolve("cds");
+			if (!Files.exists(directorio.resolve("app.jsa"))) {
+				throw new IllegalStateException("No existe " + directorio.resolve("app.jsa") + ". Hay que ejecutar antes mvn package -Pcds en " + app.modulo);
+			}
+			// Mismo directorio y mismo classpath que al generar el archivo, si no la JVM no lo usa
+			comando.addAll(Arrays.asList("-XX:SharedArchiveFile=app.jsa", "@java.args", app.clasePrincipal, "--spring.profiles.active=arranque-rapido"));
+		} else if ("jar".equals(modo)) {
+			Path jar = directorio.resolve(app.modulo + "-0.0.1-SNAPSHOT.jar");
+			if (!Files.exists(jar)) {
+				throw new IllegalStateException("No existe " + jar + ". Hay que ejecutar antes mvn package en " + app.modulo);
+			}
+			comando.addAll(Arrays.asList("-jar", jar.toString()));
+		} else {
+			throw new IllegalArgumentException("Modo no válido: " + modo + ". Los modos son jar y cds");
+		}
+		comando.add("--spring.data.mongodb.uri=" + uriMongo);
+
+		File salidaProceso = logs.resolve(app.nombre + "-" + modo + "-" + numero + ".log").toFile();
+		long inicio = System.nanoTime();
+		Process proceso = new ProcessBuilder(comando)
+				.directory(directorio.toFile())
+				.redirectErrorStream(true)
+				.redirectOutput(salidaProceso)
+				.start();
+		try {
+			long limite = inicio + timeout.toNanos();
+			while (System.nanoTime() < limite) {
+				if (app.url == null) {
+					if (proceso.waitFor(10, TimeUnit.MILLISECONDS)) {
+						if (proceso.exitValue() != 0) {
+							throw new IllegalStateException(app.nombre + " ha terminado con código " + proceso.exitValue() + ". Ver " + salidaProceso);
+						}
+						return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+					}
+				} else {
+					if (responde(app.url)) {
+						return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+					}
+					if (!proceso.isAlive()) {
+						throw new IllegalStateException(app.nombre + " ha terminado durante el arranque. Ver " + salidaProceso);
+					}
+					Thread.sleep(10);
+				}
+			}
+			throw new IllegalStateException(app.nombre + " no responde tras " + timeout.getSeconds() + "s. Ver " + salidaProceso);
+		} finally {
+			parar(proceso);
+		}
+	}
+
+	// Cualquier respuesta vale: la aplicación ya acepta y atiende peticiones
+	private boolean responde(String url) {
+		try {
+			return http.get().uri(url)
+					.responseSingle((respuesta, cuerpo) -> cuerpo.then(Mono.just(respuesta.status().code())))
+					.block(Duration.ofSeconds(5)) != null;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private void parar(Process proceso) throws InterruptedException {
+		proceso.destroy();
+		if (!proceso.waitFor(20, TimeUnit.SECONDS)) {
+			proceso.destroyForcibly().waitFor();
+		}
+	}
+
+	private static class Aplicacion {
+
+		private final String nombre;
+
+		private final String modulo;
+
+		private final String clasePrincipal;
+
+		private final String url;
+
+		private Aplicacion(String nombre, String modulo, String clasePrincipal, String url) {
+			this.nombre = nombre;
+			this.modulo = modulo;
+			this.clasePrincipal = clasePrincipal;
+			this.url = url;
+		}
+	}
+
+}
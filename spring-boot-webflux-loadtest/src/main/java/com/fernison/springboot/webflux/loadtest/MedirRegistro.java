@@ -0,0 +1,61 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+
+// Tamaño de lo que descargan los clientes de Eureka en cada consulta del registro, con y sin gzip:
+// - /apps: registro completo (primera consulta del cliente de Eureka y cuando el delta no cuadra)
+// - /apps/delta: cambios de los últimos minutos (cada eureka.client.registry-fetch-interval-seconds)
+// - /apps/{APP}: instancias de una aplicación (lo que pide el cliente al recibir un cambio por push, ver RegistroEureka)
+//
+//   java -Dloader.main=com.fernison.springboot.webflux.loadtest.MedirRegistro -jar target/loadtest.jar --url=http://localhost:8761/eureka
+//
+// Opciones (--clave=valor):
+//   url    Url base de Eureka (http://localhost:8761/eureka)
+//   apps   Aplicaciones de las que se mide /apps/{APP} (SERVICIO-BACKEND,SERVICIO-CLIENTE)
+public class MedirRegistro {
+
+	public static void main(String[] args) {
+		Opciones opciones = new Opciones(args);
+		String url = opciones.texto("url", "http://localhost:8761/eureka").replaceAll("/+$", "");
+		List<String> apps = Arrays.asList(opciones.texto("apps", "SERVICIO-BACKEND,SERVICIO-CLIENTE").split(","));
+
+		System.out.printf("%-32s %12s %12s %12s %12s%n", "", "json", "json gzip", "xml", "xml gzip");
+		medir(url, "/apps");
+		medir(url, "/apps/delta");
+		for (String app : apps) {
+			medir(url, "/apps/" + app.trim());
+		}
+	}
+
+	private static void medir(String url, String ruta) {
+		System.out.printf("%-32s %12s %12s %12s %12s%n", ruta,
+				tamanio(url + ruta, "application/json", false), tamanio(url + ruta, "application/json", true),
+				tamanio(url + ruta, "application/xml", false), tamanio(url + ruta, "application/xml", true));
+	}
+
+	// Bytes tal como llegan por la red (sin descomprimir). "-" si no responde 200
+	private static String tamanio(String url, String tipo, boolean gzip) {
+		Integer bytes = HttpClient.create()
+				.headers(h -> {
+					h.set(HttpHeaderNames.ACCEPT, tipo);
+					if (gzip) {
+						h.set(HttpHeaderNames.ACCEPT_ENCODING, "gzip");
+					}
+				})
+				.get()
+				.uri(url)
+				.responseSingle((respuesta, cuerpo) -> respuesta.status().code() == 200
+						? cuerpo.asByteArray().map(b -> b.length).defaultIfEmpty(0)
+						: cuerpo.then(Mono.just(-1)))
+				.block(Duration.ofSeconds(30));
+		return bytes == null || bytes < 0 ? "-" : bytes + " B";
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Opciones de la línea de comandos con el formato --clave=valor, como las de Spring Boot
+class Opciones {
+
+	private static final Pattern DURACION = Pattern.compile("(\\d+)(ms|s|m|h)");
+
+	private final Map<String, String> valores = new HashMap<String, String>();
+
+	Opciones(String[] args) {
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException("Opción no válida: " + arg + ". El formato es --clave=valor");
+			}
+			int igual = arg.indexOf('=');
+			valores.put(arg.substring(2, igual), arg.substring(igual + 1));
+		}
+	}
+
+	String texto(String clave, String defecto) {
+		return valores.getOrDefault(clave, defecto);
+	}
+
+	int entero(String clave, int defecto) {
+		return valores.containsKey(clave) ? Integer.parseInt(valores.get(clave)) : defecto;
+	}
+
+	double decimal(String clave, double defecto) {
+		return valores.containsKey(clave) ? Double.parseDouble(valores.get(clave)) : defecto;
+	}
+
+	boolean logico(String clave, boolean defecto) {
+		return valores.containsKey(clave) ? Boolean.parseBoolean(valores.get(clave)) : defecto;
+	}
+
+	// Con unidad: 500ms, 30s, 5m, 1h
+	Duration duracion(String clave, Duration defecto) {
+		if (!valores.containsKey(clave)) {
+			return defecto;
+		}
+		Matcher m = DURACION.matcher(valores.get(clave));
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Duración no válida en --" + clave + ": " + valores.get(clave));
+		}
+		long cantidad = Long.parseLong(m.group(1));
+		switch (m.group(2)) {
+		case "ms":
+			return Duration.ofMillis(cantidad);
+		case "s":
+			return Duration.ofSeconds(cantidad);
+		case "m":
+			return Duration.ofMinutes(cantidad);
+		default:
+			return Duration.ofHours(cantidad);
+		}
+	}
+
+	// Pesos de la mezcla de operaciones: "ver=60,listar=10,crear=10"
+	Map<String, Integer> pesos(String clave, String defecto) {
+		Map<String, Integer> pesos = new LinkedHashMap<String, Integer>();
+		for (String par : texto(clave, defecto).split(",")) {
+			String[] partes = par.trim().split("=");
+			if (partes.length != 2) {
+				throw new IllegalArgumentException("Mezcla no válida en --" + clave + ": " + par);
+			}
+			pesos.put(partes[0].trim(), Integer.valueOf(partes[1].trim()));
+		}
+		return pesos;
+	}
+
+}
@@ -0,0 +1,38 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.util.function.Supplier;
+
+import reactor.core.publisher.Mono;
+
+// Un tipo de petición de la mezcla. "peticion" crea cada vez una petición nueva y emite el código HTTP de la respuesta
+class Operacion {
+
+	// No se ha podido hacer la petición porque no hay datos para ella (por ejemplo, no queda ningún producto que borrar)
+	static final int SIN_DATOS = -1;
+
+	private final String nombre;
+
+	private final String ruta;
+
+	private final Supplier<Mono<Integer>> peticion;
+
+	Operacion(String nombre, String ruta, Supplier<Mono<Integer>> peticion) {
+		this.nombre = nombre;
+		this.ruta = ruta;
+		this.peticion = peticion;
+	}
+
+	// Nombre corto, el de la opción --mix y la etiqueta en el log de histogramas
+	String getNombre() {
+		return nombre;
+	}
+
+	String getRuta() {
+		return ruta;
+	}
+
+	Mono<Integer> ejecutar() {
+		return Mono.defer(peticion);
+	}
+
+}
@@ -0,0 +1,246 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.imageio.ImageIO;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+// Las peticiones de la prueba contra /api/client/**. Lleva la cuenta de los productos que existen para que las lecturas, 
+// ediciones, borrados y subidas vayan a productos reales. Solo se editan y borran los productos creados por la prueba
+class Operaciones implements AutoCloseable {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ConnectionProvider conexiones;
+
+	private final HttpClient http;
+
+	// Se eligen al azar: una lista con acceso sincronizado es suficiente para los pocos miles de productos de una prueba
+	private final List<String> todos = new ArrayList<String>();
+
+	private final List<String> creados = new ArrayList<String>();
+
+	private final byte[] foto;
+
+	private JsonNode categoria;
+
+	Operaciones(String url, int maxConexiones) {
+		conexiones = ConnectionProvider.builder("carga")
+				.maxConnections(maxConexiones)
+				.pendingAcquireMaxCount(-1) // Sin límite: el generador ya limita las peticiones en curso
+				.pendingAcquireTimeout(Duration.ofMinutes(1))
+				.build();
+		http = HttpClient.create(conexiones).baseUrl(url);
+		foto = png();
+	}
+
+	// Lee los productos de ejemplo (y de ellos una categoría válida para los que se crean) y crea "cantidad" productos más
+	void preparar(int cantidad) {
+		JsonNode productos = http.get().uri("/api/client")
+				.responseContent()
+				.aggregate()
+				.asInputStream()
+				.map(this::leer)
+				.block(Duration.ofSeconds(30));
+		if (productos == null || productos.size() == 0) {
+			throw new IllegalStateException("El cliente no devuelve ningún producto");
+		}
+		for (JsonNode producto : productos) {
+			agregar(todos, producto.path("id").asText());
+		}
+		categoria = productos.get(0).path("categoria");
+		Flux.range(0, cantidad)
+				.flatMap(i -> crear(), 16)
+				.then()
+				.block(Duration.ofMinutes(5));
+	}
+
+	// Con los pesos de la mezcla. Las operaciones con peso 0 o que no aparecen no se ejecutan
+	List<Operacion> crearMezcla(Map<String, Integer> pesos) {
+		List<Operacion> disponibles = List.of(
+				new Operacion("listar", "GET /api/client", this::listar),
+				new Operacion("ver", "GET /api/client/{id}", this::ver),
+				new Operacion("crear", "POST /api/client", this::crear),
+				new Operacion("editar", "PUT /api/client/{id}", this::editar),
+				new Operacion("eliminar", "DELETE /api/client/{id}", this::eliminar),
+				new Operacion("upload", "POST /api/client/upload/{id}", this::upload));
+		List<Operacion> mezcla = new ArrayList<Operacion>();
+		for (Map.Entry<String, Integer> peso : pesos.entrySet()) {
+			Operacion operacion = disponibles.stream()
+					.filter(o -> o.getNombre().equals(peso.getKey()))
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException("Operación desconocida en la mezcla: " + peso.getKey()));
+			for (int i = 0; i < peso.getValue(); i++) {
+				mezcla.add(operacion); // Elegir al azar de esta lista respeta los pesos
+			}
+		}
+		if (mezcla.isEmpty()) {
+			throw new IllegalArgumentException("La mezcla no tiene ninguna operación");
+		}
+		return mezcla;
+	}
+
+	@Override
+	public void close() {
+		conexiones.dispose();
+	}
+
+	private Mono<Integer> listar() {
+		return estado(http.get().uri("/api/client"));
+	}
+
+	private Mono<Integer> ver() {
+		String id = aleatorio(todos);
+		if (id == null) {
+			return Mono.just(Operacion.SIN_DATOS);
+		}
+		return estado(http.get().uri("/api/client/" + id));
+	}
+
+	private Mono<Integer> crear() {
+		return http.headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+				.post()
+				.uri("/api/client")
+				.send(ByteBufFlux.fromString(Mono.fromCallable(() -> mapper.writeValueAsString(producto()))))
+				.responseSingle((respuesta, cuerpo) -> {
+					int codigo = respuesta.status().code();
+					if (codigo != 201) {
+						return cuerpo.asByteArray().then(Mono.just(codigo)); // Un error de validación o del backend: no trae el producto
+					}
+					return cuerpo.asInputStream()
+							.map(this::leer)
+							.doOnNext(producto -> {
+								String id = producto.path("id").asText();
+								agregar(todos, id);
+								agregar(creados, id);
+							})
+							.then(Mono.just(codigo));
+				});
+	}
+
+	private Mono<Integer> editar() {
+		String id = aleatorio(creados);
+		if (id == null) {
+			return Mono.just(Operacion.SIN_DATOS);
+		}
+		return estado(http.headers(h -> h.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+				.put()
+				.uri("/api/client/" + id)
+				.send(ByteBufFlux.fromString(Mono.fromCallable(() -> mapper.writeValueAsString(producto())))));
+	}
+
+	private Mono<Integer> eliminar() {
+		String id = sacar(creados);
+		if (id == null) {
+			return Mono.just(Operacion.SIN_DATOS);
+		}
+		quitar(todos, id); // Antes del borrado para que no lo lean otras peticiones
+		return estado(http.delete().uri("/api/client/" + id));
+	}
+
+	// Una foto PNG pequeña en un multipart, como la subida de un formulario
+	private Mono<Integer> upload() {
+		String id = aleatorio(creados);
+		if (id == null) {
+			return Mono.just(Operacion.SIN_DATOS);
+		}
+		return estado(http.post()
+				.uri("/api/client/upload/" + id)
+				.sendForm((peticion, formulario) -> formulario
+						.multipart(true)
+						.file("file", "carga.png", new ByteArrayInputStream(foto), "image/png")));
+	}
+
+	// Se lee siempre todo el cuerpo para que la latencia incluya la respuesta completa y la conexión vuelva al pool
+	private Mono<Integer> estado(HttpClient.ResponseReceiver<?> peticion) {
+		return peticion.responseSingle((respuesta, cuerpo) -> cuerpo.asByteArray()
+				.then(Mono.just(respuesta.status().code())));
+	}
+
+	private ObjectNode producto() {
+		ObjectNode producto = mapper.createObjectNode();
+		producto.put("nombre", "carga " + UUID.randomUUID()); // El nombre es único en Mongo
+		producto.put("precio", Math.round(ThreadLocalRandom.current().nextDouble(1, 1000) * 100) / 100.0);
+		producto.set("categoria", categoria);
+		return producto;
+	}
+
+	private JsonNode leer(InputStream json) {
+		try {
+			return mapper.readTree(json);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static byte[] png() {
+		BufferedImage imagen = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = imagen.createGraphics();
+		g.setColor(Color.ORANGE);
+		g.fillRect(0, 0, 640, 480);
+		g.dispose();
+		ByteArrayOutputStream salida = new ByteArrayOutputStream();
+		try {
+			ImageIO.write(imagen, "png", salida);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return salida.toByteArray();
+	}
+
+	private static void agregar(List<String> ids, String id) {
+		synchronized (ids) {
+			ids.add(id);
+		}
+	}
+
+	private static String aleatorio(List<String> ids) {
+		synchronized (ids) {
+			return ids.isEmpty() ? null : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+		}
+	}
+
+	private static String sacar(List<String> ids) {
+		synchronized (ids) {
+			if (ids.isEmpty()) {
+				return null;
+			}
+			int i = ThreadLocalRandom.current().nextInt(ids.size());
+			String id = ids.get(i);
+			ids.set(i, ids.get(ids.size() - 1)); // Se mueve el último al hueco para no desplazar la lista
+			ids.remove(ids.size() - 1);
+			return id;
+		}
+	}
+
+	private static void quitar(List<String> ids, String id) {
+		synchronized (ids) {
+			ids.remove(id);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Prueba de carga de extremo a extremo contra el cliente (/api/client/**), que llama al backend a través de Eureka.
+//
+//   java -jar target/loadtest.jar --rate=200 --duration=2m
+//
+// Opciones (--clave=valor):
+//   local=true            Arranca Mongo embebido, Eureka, el backend y el cliente (hace falta mvn package en esos módulos).
+//                         Con false se prueba contra la url indicada
+//   url                   Url del cliente cuando local=false (http://localhost:8090)
+//   modulos               Directorio con los módulos del proyecto (..)
+//   backends              Instancias del backend, en los puertos 8080, 8081... (1)
+//   mongo-port            Puerto del Mongo embebido (27018)
+//   rate                  Peticiones por segundo (100)
+//   duration              Duración de la medida (60s)
+//   warmup                Carga previa que no se mide, para el JIT y las caches (20s)
+//   mix                   Pesos de cada operación (ver=60,listar=10,crear=10,editar=10,eliminar=5,upload=5)
+//   productos             Productos que se crean antes de empezar (200)
+//   max-in-flight         Máximo de peticiones en curso. Las que lo superan se cuentan como descartadas (5000)
+//   max-connections       Conexiones del generador con el cliente (500)
+//   timeout               Timeout de cada petición (30s)
+//   report-interval       Cada cuánto se muestran las latencias del último intervalo (10s)
+//   output                Directorio de resultados (target/carga)
+//
+// Al terminar muestra por ruta las peticiones, errores, el throughput y los percentiles p50, p99 y p99.9, y deja en el directorio de salida
+// la distribución de cada ruta (.hgrm), el log de histogramas por intervalo (latencias.hlog) y el resumen (resumen.txt)
+public class PruebaCarga {
+
+	private static final Logger log = LoggerFactory.getLogger(PruebaCarga.class);
+
+	public static void main(String[] args) throws Exception {
+		Opciones opciones = new Opciones(args);
+		Path salida = Path.of(opciones.texto("output", "target/carga"));
+		Files.createDirectories(salida);
+		double tasa = opciones.decimal("rate", 100);
+		Duration duracion = opciones.duracion("duration", Duration.ofSeconds(60));
+		Duration calentamiento = opciones.duracion("warmup", Duration.ofSeconds(20));
+		Duration intervaloInforme = opciones.duracion("report-interval", Duration.ofSeconds(10));
+
+		EntornoLocal entorno = opciones.logico("local", true) ? new EntornoLocal(opciones, salida) : null;
+		try {
+			String url = entorno != null ? entorno.arrancar() : opciones.texto("url", "http://localhost:8090");
+			try (Operaciones operaciones = new Operaciones(url, opciones.entero("max-connections", 500))) {
+				log.info("Preparando datos en {}", url);
+				operaciones.preparar(opciones.entero("productos", 200));
+				List<Operacion> mezcla = operaciones.crearMezcla(
+						opciones.pesos("mix", "ver=60,listar=10,crear=10,editar=10,eliminar=5,upload=5"));
+				Resultados resultados = new Resultados(mezcla, salida);
+				GeneradorCarga generador = new GeneradorCarga(mezcla, resultados, opciones.entero("max-in-flight", 5000),
+						opciones.duracion("timeout", Duration.ofSeconds(30)));
+
+				ScheduledExecutorService informes = Executors.newSingleThreadScheduledExecutor();
+				long periodo = intervaloInforme.toMillis();
+				informes.scheduleAtFixedRate(() -> {
+					System.out.printf("%s - %d en curso%n", resultados.midiendo() ? "Midiendo" : "Calentando", generador.getEnCurso());
+					resultados.intervalo(System.out);
+				}, periodo, periodo, TimeUnit.MILLISECONDS);
+
+				log.info("Carga de {} pet/s: {}s de calentamiento y {}s de medida", tasa, calentamiento.getSeconds(), duracion.getSeconds());
+				resultados.iniciarMedida(System.nanoTime() + calentamiento.toNanos());
+				generador.ejecutar(tasa, calentamiento.plus(duracion));
+				informes.shutdown();
+				informes.awaitTermination(1, TimeUnit.MINUTES);
+				resultados.intervalo(System.out); // Lo que queda desde el último informe
+
+				double segundos = duracion.toMillis() / 1000.0;
+				System.out.println();
+				resultados.resumen(System.out, segundos);
+				try (PrintStream resumen = new PrintStream(Files.newOutputStream(salida.resolve("resumen.txt")))) {
+					resumen.printf("rate=%s duration=%s warmup=%s%n", tasa, duracion, calentamiento);
+					resultados.resumen(resumen, segundos);
+				}
+				resultados.guardarDistribuciones(salida);
+				resultados.cerrar();
+				log.info("Resultados en {}", salida.toAbsolutePath());
+			}
+		} finally {
+			if (entorno != null) {
+				entorno.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,353 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+// Prueba del cluster de Eureka (perfil "cluster" del servidor): arranca varios nodos como procesos aparte, registra muchas instancias simuladas
+// repartidas entre los nodos y mide
+// - el retardo de replicación: desde que se envía un alta o una baja a un nodo hasta que se ve en cada uno de los demás
+// - el throughput de latidos (renovaciones) que aguanta el cluster y su latencia, con un número fijo de peticiones en curso
+//
+//   java -Dloader.main=com.fernison.springboot.webflux.loadtest.PruebaClusterEureka -jar target/loadtest.jar --instancias=1000
+//
+// Opciones (--clave=valor):
+//   modulos                Directorio con los módulos del proyecto (hace falta mvn package en spring-boot-webflux-eureka-server) (..)
+//   nodos                  Nodos del cluster. El nodo i escucha en 127.0.0.i y en el puerto 8760+i (3)
+//   instancias             Instancias simuladas (500)
+//   concurrencia           Altas y bajas en curso a la vez (50)
+//   latidos-concurrencia   Latidos en curso a la vez (64)
+//   latidos-duracion       Duración de la medida de latidos (30s)
+//   sondeo                 Cada cuánto se consulta cada nodo para ver qué instancias tiene (100ms). Es la resolución del retardo medido
+//   output                 Directorio de resultados (target/cluster-eureka)
+//
+// Cada nodo tiene que tener un nombre de host distinto o Eureka lo quita de la lista de réplicas. En Linux toda la red 127.0.0.0/8 es local,
+// así que se usan 127.0.0.1, 127.0.0.2... En macOS hay que crear antes los alias (sudo ifconfig lo0 alias 127.0.0.2...)
+public class PruebaClusterEureka {
+
+	private static final Logger log = LoggerFactory.getLogger(PruebaClusterEureka.class);
+
+	private static final String APP = "SIMULADO";
+
+	private static final Duration ESPERA = Duration.ofMinutes(3);
+
+	private static final long MAXIMO_MS = TimeUnit.MINUTES.toMillis(10);
+
+	private final Path modulos;
+
+	private final Path logs;
+
+	private final int nodos;
+
+	private final int instancias;
+
+	private final int concurrencia;
+
+	private final Duration sondeo;
+
+	private final List<String> urls = new ArrayList<String>();
+
+	private final List<Process> procesos = Collections.synchronizedList(new ArrayList<Process>());
+
+	private final ConnectionProvider conexiones;
+
+	private final HttpClient http;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	// Instante (System.nanoTime) en que se envía el alta y la baja de cada instancia
+	private final AtomicLongArray altas;
+
+	private final AtomicLongArray bajas;
+
+	// Por nodo: instante en que se ha visto cada instancia por primera vez y en que se ha dejado de ver
+	private final List<Map<String, Long>> vistas = new ArrayList<Map<String, Long>>();
+
+	private final List<Map<String, Long>> desaparecidas = new ArrayList<Map<String, Long>>();
+
+	private PruebaClusterEureka(Opciones opciones, Path salida) {
+		this.modulos = Path.of(opciones.texto("modulos", "..")).toAbsolutePath().normalize();
+		this.logs = salida.resolve("logs");
+		this.nodos = opciones.entero("nodos", 3);
+		this.instancias = opciones.entero("instancias", 500);
+		this.concurrencia = opciones.entero("concurrencia", 50);
+		this.sondeo = opciones.duracion("sondeo", Duration.ofMillis(100));
+		for (int i = 1; i <= nodos; i++) {
+			urls.add("http://127.0.0." + i + ":" + (8760 + i) + "/eureka");
+			vistas.add(new ConcurrentHashMap<String, Long>());
+			desaparecidas.add(new ConcurrentHashMap<String, Long>());
+		}
+		this.altas = new AtomicLongArray(instancias);
+		this.bajas = new AtomicLongArray(instancias);
+		int maximoConexiones = Math.max(concurrencia, opciones.entero("latidos-concurrencia", 64)) + nodos;
+		this.conexiones = ConnectionProvider.builder("eureka").maxConnections(maximoConexiones).build();
+		this.http = HttpClient.create(conexiones).headers(h -> h
+				.set(HttpHeaderNames.ACCEPT, "application/json")
+				.set(HttpHeaderNames.CONTENT_TYPE, "application/json"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Opciones opciones = new Opciones(args);
+		Path salida = Path.of(opciones.texto("output", "target/cluster-eureka"));
+		Files.createDirectories(salida.resolve("logs"));
+		PruebaClusterEureka prueba = new PruebaClusterEureka(opciones, salida);
+		Runtime.getRuntime().addShutdownHook(new Thread(prueba::parar)); // Que no queden procesos sueltos si se interrumpe la prueba
+		try (PrintStream resumen = new PrintStream(salida.resolve("resumen.txt").toFile(), "UTF-8")) {
+			prueba.ejecutar(opciones, resumen);
+		} finally {
+			prueba.parar();
+		}
+	}
+
+	private void ejecutar(Opciones opciones, PrintStream resumen) throws IOException, InterruptedException {
+		arrancarCluster();
+
+		ScheduledExecutorService sondeos = Executors.newScheduledThreadPool(nodos);
+		for (int i = 0; i < nodos; i++) {
+			int nodo = i;
+			sondeos.scheduleWithFixedDelay(() -> sondear(nodo), 0, sondeo.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		log.info("Registrando {} instancias repartidas entre {} nodos", instancias, nodos);
+		long erroresAltas = Flux.range(0, instancias)
+				.flatMap(i -> alta(i), concurrencia)
+				.filter(correcta -> !correcta)
+				.count()
+				.block();
+		long registradas = instancias - erroresAltas;
+		esperar("replicación de las altas", () -> vistas.stream().allMatch(v -> v.size() >= registradas));
+		Histogram retardoAltas = retardos(altas, vistas);
+
+		int latidosConcurrencia = opciones.entero("latidos-concurrencia", 64);
+		Duration latidosDuracion = opciones.duracion("latidos-duracion", Duration.ofSeconds(30));
+		log.info("Latidos durante {}s con {} en curso", latidosDuracion.getSeconds(), latidosConcurrencia);
+		Histogram latenciaLatidos = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+		LongAdder latidosCorrectos = new LongAdder();
+		LongAdder latidosFallidos = new LongAdder();
+		long inicioLatidos = System.nanoTime();
+		Flux.range(0, Integer.MAX_VALUE)
+				.flatMap(n -> latido(n % instancias, latenciaLatidos), latidosConcurrencia)
+				.take(latidosDuracion)
+				.doOnNext(correcto -> (correcto ? latidosCorrectos : latidosFallidos).increment())
+				.blockLast();
+		double segundosLatidos = (System.nanoTime() - inicioLatidos) / 1e9;
+
+		log.info("Dando de baja las {} instancias", instancias);
+		long erroresBajas = Flux.range(0, instancias)
+				.flatMap(i -> baja(i), concurrencia)
+				.filter(correcta -> !correcta)
+				.count()
+				.block();
+		esperar("replicación de las bajas", () -> desaparecidas.stream().allMatch(d -> d.size() >= registradas - erroresBajas));
+		Histogram retardoBajas = retardos(bajas, desaparecidas);
+		sondeos.shutdownNow();
+
+		for (PrintStream out : new PrintStream[] { System.out, resumen }) {
+			out.printf("%nCluster de %d nodos, %d instancias simuladas (altas con error: %d, bajas con error: %d)%n", nodos, instancias, erroresAltas, erroresBajas);
+			out.printf("%nRetardo de replicación a los otros nodos (resolución ~%d ms)%n", sondeo.toMillis());
+			out.printf("  %-8s %8s %8s %8s%n", "", "p50", "p99", "max");
+			out.printf("  %-8s %5d ms %5d ms %5d ms%n", "altas", retardoAltas.getValueAtPercentile(50), retardoAltas.getValueAtPercentile(99), retardoAltas.getMaxValue());
+			out.printf("  %-8s %5d ms %5d ms %5d ms%n", "bajas", retardoBajas.getValueAtPercentile(50), retardoBajas.getValueAtPercentile(99), retardoBajas.getMaxValue());
+			out.printf("%nLatidos: %.0f/s (%d correctos, %d con error en %.1fs, %d en curso)%n", latidosCorrectos.sum() / segundosLatidos,
+					latidosCorrectos.sum(), latidosFallidos.sum(), segundosLatidos, latidosConcurrencia);
+			out.printf("  latencia p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+					latenciaLatidos.getValueAtPercentile(50) / 1000.0, latenciaLatidos.getValueAtPercentile(99) / 1000.0,
+					latenciaLatidos.getValueAtPercentile(99.9) / 1000.0, latenciaLatidos.getMaxValue() / 1000.0);
+		}
+	}
+
+	// Cada nodo con el perfil cluster (réplicas entre sí) y registro-rapido (sin la cache de solo lectura, que retrasaría lo que se ve)
+	private void arrancarCluster() throws IOException {
+		Files.createDirectories(logs);
+		Path jar = modulos.resolve("spring-boot-webflux-eureka-server").resolve("target").resolve("spring-boot-webflux-eureka-server-0.0.1-SNAPSHOT.jar");
+		if (!Files.exists(jar)) {
+			throw new IllegalStateException("No existe " + jar + ". Hay que ejecutar antes mvn package en spring-boot-webflux-eureka-server");
+		}
+		String replicas = urls.stream().map(url -> url + "/").collect(Collectors.joining(","));
+		for (int i = 1; i <= nodos; i++) {
+			File salida = logs.resolve("eureka-" + i + ".log").toFile();
+			log.info("Arrancando el nodo {} en 127.0.0.{}:{} (salida en {})", i, i, 8760 + i, salida);
+			procesos.add(new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "-jar", jar.toString(),
+					"--spring.profiles.active=cluster,registro-rapido",
+					"--server.port=" + (8760 + i),
+					"--eureka.instance.hostname=127.0.0." + i,
+					"--config.cluster.peers=" + replicas)
+					.redirectErrorStream(true)
+					.redirectOutput(salida)
+					.start());
+		}
+		// Listo cuando todos los nodos ven registrados a todos los nodos (cada uno se registra en los demás)
+		esperar("cluster", () -> IntStream.range(0, nodos).allMatch(i -> instanciasUp(urls.get(i), "SERVICIO-EUREKA-SERVER").size() >= nodos));
+	}
+
+	private void parar() {
+		List<Process> aParar = new ArrayList<Process>(procesos);
+		procesos.clear();
+		for (Process proceso : aParar) {
+			proceso.destroy();
+		}
+		for (Process proceso : aParar) {
+			try {
+				if (!proceso.waitFor(20, TimeUnit.SECONDS)) {
+					proceso.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				proceso.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		conexiones.dispose();
+	}
+
+	// Cada instancia se registra en un nodo (i % nodos) y renueva siempre en ese, como un cliente con ese nodo primero en su lista.
+	// Lease de 10 minutos para que no caduque si los latidos no llegan a todas durante la prueba
+	private Mono<Boolean> alta(int i) {
+		String cuerpo = String.format("{\"instance\":{\"instanceId\":\"%s\",\"hostName\":\"10.0.%d.%d\",\"app\":\"%s\",\"ipAddr\":\"10.0.%d.%d\","
+				+ "\"vipAddress\":\"simulado\",\"status\":\"UP\",\"port\":{\"$\":8080,\"@enabled\":\"true\"},\"securePort\":{\"$\":443,\"@enabled\":\"false\"},"
+				+ "\"leaseInfo\":{\"renewalIntervalInSecs\":30,\"durationInSecs\":600},"
+				+ "\"dataCenterInfo\":{\"@class\":\"com.netflix.appinfo.InstanceInfo$DefaultDataCenterInfo\",\"name\":\"MyOwn\"}}}",
+				id(i), i / 250, i % 250, APP, i / 250, i % 250);
+		return Mono.defer(() -> {
+			altas.set(i, System.nanoTime());
+			return estado(http.post().uri(nodo(i) + "/apps/" + APP).send(ByteBufFlux.fromString(Mono.just(cuerpo))));
+		}).map(codigo -> codigo == 204);
+	}
+
+	private Mono<Boolean> baja(int i) {
+		return Mono.defer(() -> {
+			bajas.set(i, System.nanoTime());
+			return estado(http.delete().uri(nodo(i) + "/apps/" + APP + "/" + id(i)));
+		}).map(codigo -> codigo == 200);
+	}
+
+	private Mono<Boolean> latido(int i, Histogram latencia) {
+		return Mono.defer(() -> {
+			long inicio = System.nanoTime();
+			return estado(http.put().uri(nodo(i) + "/apps/" + APP + "/" + id(i) + "?status=UP"))
+					.doOnNext(codigo -> {
+						synchronized (latencia) {
+							latencia.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - inicio), latencia.getHighestTrackableValue()));
+						}
+					});
+		}).map(codigo -> codigo == 200);
+	}
+
+	private String nodo(int instancia) {
+		return urls.get(instancia % nodos);
+	}
+
+	private static String id(int instancia) {
+		return "simulado-" + instancia;
+	}
+
+	// Anota cuándo aparece y cuándo desaparece cada instancia en el nodo. Las bajas solo cuentan después de haber enviado la baja
+	private void sondear(int nodo) {
+		Set<String> presentes = instanciasUp(urls.get(nodo), APP);
+		long ahora = System.nanoTime();
+		Map<String, Long> vistasNodo = vistas.get(nodo);
+		for (String id : presentes) {
+			vistasNodo.putIfAbsent(id, ahora);
+		}
+		Map<String, Long> desaparecidasNodo = desaparecidas.get(nodo);
+		for (int i = 0; i < instancias; i++) {
+			if (bajas.get(i) != 0 && vistasNodo.containsKey(id(i)) && !presentes.contains(id(i))) {
+				desaparecidasNodo.putIfAbsent(id(i), ahora);
+			}
+		}
+	}
+
+	// Retardo de cada instancia en los nodos distintos del que recibió la petición, en milisegundos
+	private Histogram retardos(AtomicLongArray enviadas, List<Map<String, Long>> vistoEn) {
+		Histogram histograma = new Histogram(MAXIMO_MS, 3);
+		for (int i = 0; i < instancias; i++) {
+			for (int nodo = 0; nodo < nodos; nodo++) {
+				Long visto = vistoEn.get(nodo).get(id(i));
+				if (nodo != i % nodos && visto != null) {
+					histograma.recordValue(Math.min(Math.max(0, TimeUnit.NANOSECONDS.toMillis(visto - enviadas.get(i))), MAXIMO_MS));
+				}
+			}
+		}
+		return histograma;
+	}
+
+	// Ids de las instancias UP de la aplicación en un nodo. Vacío si no hay ninguna o el nodo no responde
+	private Set<String> instanciasUp(String url, String aplicacion) {
+		try {
+			String cuerpo = http.get().uri(url + "/apps/" + aplicacion)
+					.responseSingle((respuesta, contenido) -> respuesta.status().code() == 200 ? contenido.asString() : contenido.then(Mono.just("{}")))
+					.block(Duration.ofSeconds(5));
+			JsonNode lista = mapper.readTree(cuerpo == null ? "{}" : cuerpo).path("application").path("instance");
+			Iterable<JsonNode> elementos = lista.isArray() ? lista : Collections.singletonList(lista);
+			Set<String> ids = new HashSet<String>();
+			for (JsonNode instancia : elementos) {
+				if ("UP".equals(instancia.path("status").asText())) {
+					ids.add(instancia.path("instanceId").asText());
+				}
+			}
+			return ids;
+		} catch (IOException | RuntimeException e) {
+			return Collections.emptySet();
+		}
+	}
+
+	private Mono<Integer> estado(HttpClient.ResponseReceiver<?> peticion) {
+		return peticion.responseSingle((respuesta, cuerpo) -> cuerpo.then(Mono.just(respuesta.status().code())))
+				.timeout(Duration.ofSeconds(30))
+				.onErrorReturn(0);
+	}
+
+	private void esperar(String que, BooleanSupplier listo) {
+		long limite = System.nanoTime() + ESPERA.toNanos();
+		while (!listo.getAsBoolean()) {
+			if (System.nanoTime() > limite) {
+				throw new IllegalStateException(que + " no ha terminado tras " + ESPERA.getSeconds() + "s. Revisar los logs en " + logs);
+			}
+			for (Process proceso : procesos) {
+				if (!proceso.isAlive()) {
+					throw new IllegalStateException("Un nodo ha terminado. Revisar los logs en " + logs);
+				}
+			}
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrumpido esperando a " + que);
+			}
+		}
+		log.info("Listo: {}", que);
+	}
+
+}
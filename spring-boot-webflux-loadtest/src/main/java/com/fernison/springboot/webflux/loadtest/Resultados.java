@@ -0,0 +1,156 @@
+package com.fernison.springboot.webflux.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+// Latencias y contadores por ruta. La latencia se mide desde el instante en que la petición debía salir según la tasa, no desde que sale:
+// si el generador o el sistema se retrasan ese retraso cuenta (sin "coordinated omission").
+// Las respuestas con error también entran en el histograma, así un fallo rápido no oculta una cola lenta ni al revés
+class Resultados {
+
+	private static final long MAXIMO_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+	private final Map<String, Ruta> rutas = new LinkedHashMap<String, Ruta>();
+
+	private final HistogramLogWriter log;
+
+	// Lo que se programa antes de este instante es calentamiento y no se cuenta
+	private volatile long inicioMedida = Long.MAX_VALUE;
+
+	Resultados(List<Operacion> operaciones, Path salida) throws IOException {
+		for (Operacion operacion : operaciones) {
+			rutas.putIfAbsent(operacion.getNombre(), new Ruta(operacion));
+		}
+		log = new HistogramLogWriter(salida.resolve("latencias.hlog").toFile()); // Se puede abrir con HistogramLogAnalyzer
+		log.outputLogFormatVersion();
+		log.outputStartTime(System.currentTimeMillis());
+		log.setBaseTime(System.currentTimeMillis());
+		log.outputLegend();
+	}
+
+	void iniciarMedida(long nanos) {
+		inicioMedida = nanos;
+	}
+
+	boolean midiendo() {
+		return System.nanoTime() >= inicioMedida;
+	}
+
+	void respuesta(Operacion operacion, long programada, int codigo) {
+		if (programada < inicioMedida) {
+			return;
+		}
+		Ruta ruta = rutas.get(operacion.getNombre());
+		if (codigo == Operacion.SIN_DATOS) {
+			ruta.sinDatos.increment();
+			return;
+		}
+		ruta.registrar(programada);
+		(codigo < 400 ? ruta.correctas : ruta.erroresHttp).increment();
+	}
+
+	// Timeout de la petición, conexión rechazada...
+	void fallo(Operacion operacion, long programada) {
+		if (programada < inicioMedida) {
+			return;
+		}
+		Ruta ruta = rutas.get(operacion.getNombre());
+		ruta.registrar(programada);
+		ruta.fallos.increment();
+	}
+
+	// No se lanza porque ya hay demasiadas en curso: el sistema no da abasto con la tasa pedida
+	void descartada(Operacion operacion, long programada) {
+		if (programada >= inicioMedida) {
+			rutas.get(operacion.getNombre()).descartadas.increment();
+		}
+	}
+
+	// Pasa lo medido desde la llamada anterior al total y al log de histogramas y muestra una línea por ruta
+	synchronized void intervalo(PrintStream salida) {
+		for (Ruta ruta : rutas.values()) {
+			Histogram intervalo = ruta.recorder.getIntervalHistogram();
+			ruta.total.add(intervalo);
+			if (intervalo.getTotalCount() > 0) {
+				double segundos = Math.max(intervalo.getEndTimeStamp() - intervalo.getStartTimeStamp(), 1) / 1000.0;
+				intervalo.setTag(ruta.operacion.getNombre());
+				log.outputIntervalHistogram(intervalo);
+				salida.printf("  %-30s %8.1f pet/s   p50 %9.2f ms   p99 %9.2f ms   max %9.2f ms%n", ruta.operacion.getRuta(),
+						intervalo.getTotalCount() / segundos, ms(intervalo.getValueAtPercentile(50)),
+						ms(intervalo.getValueAtPercentile(99)), ms(intervalo.getMaxValue()));
+			}
+		}
+	}
+
+	void resumen(PrintStream salida, double segundos) {
+		String formato = "%-30s %9s %8s %8s %8s %8s %10s %10s %10s %10s %10s%n";
+		salida.printf(formato, "Ruta", "Correctas", "ErrHTTP", "Fallos", "Descart.", "SinDatos", "pet/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (Ruta ruta : rutas.values()) {
+			Histogram h = ruta.total;
+			salida.printf(formato, ruta.operacion.getRuta(), ruta.correctas.sum(), ruta.erroresHttp.sum(), ruta.fallos.sum(),
+					ruta.descartadas.sum(), ruta.sinDatos.sum(),
+					String.format("%.1f", h.getTotalCount() / segundos),
+					String.format("%.2f", ms(h.getValueAtPercentile(50))),
+					String.format("%.2f", ms(h.getValueAtPercentile(99))),
+					String.format("%.2f", ms(h.getValueAtPercentile(99.9))),
+					String.format("%.2f", ms(h.getMaxValue())));
+		}
+	}
+
+	// Distribución completa de cada ruta en el formato .hgrm de HdrHistogram, en milisegundos
+	void guardarDistribuciones(Path salida) throws IOException {
+		for (Ruta ruta : rutas.values()) {
+			try (PrintStream fichero = new PrintStream(Files.newOutputStream(salida.resolve(ruta.operacion.getNombre() + ".hgrm")))) {
+				ruta.total.outputPercentileDistribution(fichero, 1000.0);
+			}
+		}
+	}
+
+	void cerrar() {
+		log.close();
+	}
+
+	private static double ms(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static class Ruta {
+
+		private final Operacion operacion;
+
+		private final Recorder recorder = new Recorder(MAXIMO_MICROS, 3);
+
+		private final Histogram total = new Histogram(MAXIMO_MICROS, 3);
+
+		private final LongAdder correctas = new LongAdder();
+
+		private final LongAdder erroresHttp = new LongAdder();
+
+		private final LongAdder fallos = new LongAdder();
+
+		private final LongAdder descartadas = new LongAdder();
+
+		private final LongAdder sinDatos = new LongAdder();
+
+		private Ruta(Operacion operacion) {
+			this.operacion = operacion;
+		}
+
+		private void registrar(long programada) {
+			long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - programada);
+			recorder.recordValue(Math.min(Math.max(micros, 0), MAXIMO_MICROS));
+		}
+	}
+
+}
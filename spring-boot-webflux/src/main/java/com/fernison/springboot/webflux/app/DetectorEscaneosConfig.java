@@ -0,0 +1,101 @@
+package com.fernison.springboot.webflux.app;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
+
+import com.fernison.springboot.webflux.comun.repositorios.InterceptorRepositorio;
+
+import reactor.core.Scannable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Hooks;
+
+// Solo para desarrollo (config.debug.detectar-escaneos=true). Avisa cuando un handler lee una colección entera con findAll()
+// para luego quedarse con un elemento filtrando en memoria (findAll().filter(...).next()), que debería ser una consulta con filtro
+@Configuration
+@ConditionalOnProperty(name = "config.debug.detectar-escaneos", havingValue = "true")
+@Lazy(false) // El hook se registra al crear el bean: también con spring.main.lazy-initialization (perfil arranque-rapido)
+public class DetectorEscaneosConfig {
+
+	private static final Logger log = LoggerFactory.getLogger(DetectorEscaneosConfig.class);
+
+	private static final String HOOK = "detectorEscaneos";
+
+	private static final String MARCA_FIND_ALL = "mongo.findAll";
+
+	// Operadores que se quedan con un único elemento del Flux
+	private static final Set<String> OPERADORES_UN_ELEMENTO = new HashSet<String>(Arrays.asList("MonoNext", "MonoSingle", "MonoElementAt"));
+
+	// Pone nombre al Flux que devuelve findAll() sin filtro. Así se reconoce después en la cadena de operadores. Va el último para que
+	// el nombre quede en el Flux que recibe el handler y no debajo de lo que añadan otros interceptores
+	@Bean
+	@Order(Ordered.LOWEST_PRECEDENCE)
+	public InterceptorRepositorio marcadorFindAll() {
+		return (repositorio, invocacion, resultado) -> {
+			if (resultado instanceof Flux && esFindAllSinFiltro(invocacion.getMethod().getName(), invocacion.getArguments())) {
+				return ((Flux<?>) resultado).name(MARCA_FIND_ALL + "." + repositorio);
+			}
+			return resultado;
+		};
+	}
+
+	// Se ejecuta al montar cada operador, así que la traza del aviso apunta al método que ha construido la consulta
+	@PostConstruct
+	public void registrarHook() {
+		Hooks.onEachOperator(HOOK, publicador -> {
+			String origen = findAllFiltradoEnMemoria(publicador);
+			if (origen != null) {
+				log.warn("Escaneo completo de la colección: {} se filtra en memoria para quedarse con un elemento. Usar una consulta con filtro (findById, findByNombre...)",
+						origen, new Throwable("Consulta montada en"));
+			}
+			return publicador;
+		});
+	}
+
+	@PreDestroy
+	public void quitarHook() {
+		Hooks.resetOnEachOperator(HOOK);
+	}
+
+	private static boolean esFindAllSinFiltro(String metodo, Object[] argumentos) {
+		if (!"findAll".equals(metodo)) {
+			return false;
+		}
+		return argumentos.length == 0 || (argumentos.length == 1 && argumentos[0] instanceof Sort); // findAll(Example) sí lleva filtro
+	}
+
+	// Devuelve el nombre del findAll de origen si el operador es un next()/single()/elementAt() con un filter() por encima que viene de un findAll()
+	private static String findAllFiltradoEnMemoria(Publisher<Object> publicador) {
+		if (!OPERADORES_UN_ELEMENTO.contains(publicador.getClass().getSimpleName())) {
+			return null;
+		}
+		boolean filtrado = false;
+		Iterator<? extends Scannable> padres = Scannable.from(publicador).parents().iterator();
+		while (padres.hasNext()) {
+			Scannable padre = padres.next();
+			if (padre.getClass().getSimpleName().startsWith("FluxFilter")) {
+				filtrado = true;
+			}
+			String nombre = padre.scan(Scannable.Attr.NAME);
+			if (filtrado && nombre != null && nombre.startsWith(MARCA_FIND_ALL)) {
+				return nombre;
+			}
+		}
+		return null;
+	}
+}
@@ -1,12 +1,14 @@
 package com.fernison.springboot.webflux.app.controller;
 
 import java.io.File;
-import java.net.MalformedURLException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.util.Date;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
 import javax.validation.Valid;
 
@@ -14,8 +16,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
@@ -34,9 +37,11 @@ import org.thymeleaf.spring5.context.webflux.ReactiveDataDriverContextVariable;
 import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
 import com.fernison.springboot.webflux.app.models.services.ProductoService;
+import com.fernison.springboot.webflux.comun.miniaturas.MiniaturaService;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @SessionAttributes("producto") // Persiste en sesion los objetos de tipo producto. Esto vale para no tener qwue estar pasando los ids y que se pueda actualizar directamente
 @Controller
@@ -44,12 +49,21 @@ public class ProductoController {
 
 	private static final Logger log = LoggerFactory.getLogger(ProductoController.class);
 	
+	// UUID-nombre: el nombre que da el formulario a cada subida
+	private static final Pattern NOMBRE_INMUTABLE = Pattern.compile("^[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}-.+$");
+	
 	@Value("${config.uploads.path}")
 	private String path;
 	
+	@Value("${config.uploads.cache-max-age:365d}")
+	private Duration cacheImagenes;
+	
 	@Autowired
 	private ProductoService service;
 	
+	@Autowired
+	private MiniaturaService miniaturaService;
+	
 	@ModelAttribute("categorias") // Con esto se asigna directamente a la vista sin necesidad de hacer model.addAttribute
 								  // Se invoca cada vez que se llama a "categorias" desde el formulario. Es buena solución para los select con datos
 	public Flux<Categoria> categorias() {
@@ -75,16 +89,34 @@ public class ProductoController {
 	}
 	
 	// Devuelve la imagen para mostrarla en el navegador
+	// Se devuelve como FileSystemResource para que Netty la envíe con zero-copy (FileRegion/sendfile) y el writer de recursos atienda 
+	// las cabeceras Range (206). Con el ETag y el Last-Modified, el propio WebFlux contesta 304 a los GET condicionales
 	@GetMapping({"/uploads/img/{nombreFoto:.+}"}) // ":.+" nos permite pasar la extensión del archivo
-	public Mono<ResponseEntity<Resource>> ver(@PathVariable String nombreFoto) throws MalformedURLException {
+	public Mono<ResponseEntity<Resource>> ver(@PathVariable String nombreFoto) {
 		Path ruta = Paths.get(path).resolve(nombreFoto).toAbsolutePath();
-		Resource imagen = new UrlResource(ruta.toUri());
-		// También se puede devolver un Mono de ResponseEntity que contenga la respuesta
-		return Mono.just(
-				ResponseEntity.ok()
-					.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + imagen.getFilename() + "\"")
-					.body(imagen)
-				);
+		return Mono.fromCallable(() -> Files.isRegularFile(ruta) ? Files.readAttributes(ruta, BasicFileAttributes.class) : null)
+				.subscribeOn(Schedulers.boundedElastic()) // Acceso al sistema de ficheros, fuera del event loop
+				.map(atributos -> {
+					Resource imagen = new FileSystemResource(ruta);
+					long modificado = atributos.lastModifiedTime().toMillis();
+					return ResponseEntity.ok()
+						.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + imagen.getFilename() + "\"")
+						.eTag(Long.toHexString(modificado) + "-" + Long.toHexString(atributos.size()))
+						.lastModified(modificado)
+						.header(HttpHeaders.CACHE_CONTROL, cacheControl(nombreFoto))
+						.body(imagen);
+				})
+				.defaultIfEmpty(ResponseEntity.notFound().build());
+	}
+	
+	// Los nombres que genera la aplicación (UUID-nombre) nunca se reutilizan para otro contenido, así que el navegador
+	// puede guardarlas sin volver a preguntar. Cualquier otro nombre se revalida con el ETag.
+	// CacheControl no tiene immutable() hasta Spring 5.3: se añade a mano
+	private String cacheControl(String nombreFoto) {
+		if (NOMBRE_INMUTABLE.matcher(nombreFoto).matches()) {
+			return CacheControl.maxAge(cacheImagenes).cachePublic().getHeaderValue() + ", immutable";
+		}
+		return CacheControl.noCache().getHeaderValue();
 	}
 	
 	@GetMapping({"/listar", "/"})
@@ -121,26 +153,28 @@ public class ProductoController {
 			}
 			Mono<Categoria> categoria = service.findCategoriaById(producto.getCategoria().getId());
 			return categoria.flatMap(c -> {
-				if (!file.filename().isEmpty()) {
-					producto.setFoto(UUID.randomUUID() + "-" + file.filename()
-						.replace(" ", "")
-						.replace(":", "")
-						.replace("\\", "")
-					);
-				}
 				producto.setCategoria(c);
-				return service.save(producto);
+				if (file.filename().isEmpty()) {
+					return Mono.just(producto);
+				}
+				producto.setFoto(UUID.randomUUID() + "-" + file.filename()
+					.replace(" ", "")
+					.replace(":", "")
+					.replace("\\", "")
+				);
+				// Primero se guarda el fichero y se generan las miniaturas (en su propio scheduler) para guardar el producto ya con ellas
+				return file.transferTo(new File(path + producto.getFoto()))
+					.then(miniaturaService.generar(Paths.get(path + producto.getFoto())))
+					.map(miniaturas -> {
+						producto.setMiniaturas(miniaturas);
+						return producto;
+					});
 			})
+			.flatMap(service::save)
 			.doOnNext(p -> {
 				log.info("Producto guardado: " + p.getNombre() + " Id: " + p.getId());
 				log.info("Categoria asignada: " + p.getCategoria().getNombre() + " Id: " + p.getCategoria().getId());
 			})
-			.flatMap(p -> { // Se usa un flatMap porque usamos transferTo que retorna un Mono
-				if (!file.filename().isEmpty()) {
-					return file.transferTo(new File(path + p.getFoto()));
-				}	
-				return Mono.empty();
-			})
 			.then(Mono.just("redirect:/listar?success=producto+guardado+con+éxito")); // Redirige la respuesta a la vista "listar". Se puede poner solo thenReturn("redirect:/listar")
 		}
 	}
@@ -33,18 +33,10 @@ public class ProductoRestController {
 		return productos;
 	}
 	
-	// Forma fácil y eficiente
-//	@GetMapping("/{id}")
-//	public Mono<Producto> showEasy(@PathVariable String id) {
-//		Mono<Producto> producto = dao.findById(id);
-//		return producto;
-//	}
-	
-	// Forma más compleja
+	// Búsqueda por _id: Mongo resuelve la consulta con el índice y solo devuelve un documento.
+	// Antes se hacía dao.findAll().filter(...).next(), que traía la colección entera para quedarse con uno
 	@GetMapping("/{id}")
-	public Mono<Producto> showFilter(@PathVariable String id) {
-		return dao.findAll()
-				.filter(producto -> producto.getId().equals(id))
-				.next(); // "next" retorna el Mono de la consulta ya que devuelve el primer elemento de un Flux como Mono
+	public Mono<Producto> show(@PathVariable String id) {
+		return dao.findById(id);
 	}
 }
@@ -1,6 +1,7 @@
 package com.fernison.springboot.webflux.app.models.documents;
 
 import java.util.Date;
+import java.util.Map;
 
 import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
@@ -29,6 +30,8 @@ public class Producto {
 	private Categoria categoria;
 	
 	private String foto;
+	
+	private Map<String, String> miniaturas; // Nombre de la miniatura de la foto por tamaño máximo en píxeles ("160" -> "...-160.png")
 		
 	public Producto(String nombre, Double precio) {
 		this.nombre = nombre;
@@ -78,10 +81,23 @@ public class Producto {
 	public void setFoto(String foto) {
 		this.foto = foto;
 	}
+	public Map<String, String> getMiniaturas() {
+		return miniaturas;
+	}
+	public void setMiniaturas(Map<String, String> miniaturas) {
+		this.miniaturas = miniaturas;
+	}
+	// Miniatura del tamaño pedido o, si no la hay, la foto original. Se usa desde las vistas
+	public String fotoDeTamanio(String tamanio) {
+		if (miniaturas == null || !miniaturas.containsKey(tamanio)) {
+			return foto;
+		}
+		return miniaturas.get(tamanio);
+	}
 	@Override
 	public String toString() {
 		return "Producto [id=" + id + ", nombre=" + nombre + ", precio=" + precio + ", createAt=" + createAt
-				+ ", categoria=" + categoria + ", foto=" + foto + "]";
+				+ ", categoria=" + categoria + ", foto=" + foto + ", miniaturas=" + miniaturas + "]";
 	}
 	
 	
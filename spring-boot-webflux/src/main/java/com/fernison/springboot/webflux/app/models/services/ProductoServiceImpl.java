@@ -1,12 +1,20 @@
 package com.fernison.springboot.webflux.app.models.services;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.fernison.springboot.webflux.app.models.dao.CategoriaDao;
 import com.fernison.springboot.webflux.app.models.dao.ProductoDao;
 import com.fernison.springboot.webflux.app.models.documents.Categoria;
 import com.fernison.springboot.webflux.app.models.documents.Producto;
+import com.fernison.springboot.webflux.comun.cache.CacheReactiva;
 
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -20,6 +28,20 @@ public class ProductoServiceImpl implements ProductoService {
 	@Autowired
 	private CategoriaDao categoriaDao;
 	
+	@Value("${config.cache.categorias.ttl:10m}")
+	private Duration ttlCategorias;
+	
+	// Las categorías se leen en cada petición del formulario (@ModelAttribute("categorias")) y casi no cambian
+	private CacheReactiva<String, Categoria> cacheCategoriasPorId;
+	private CacheReactiva<String, List<Categoria>> cacheTodasCategorias;
+	
+	@PostConstruct
+	public void crearCaches() {
+		cacheCategoriasPorId = new CacheReactiva<String, Categoria>("categorias.id", 1000, ttlCategorias, Categoria::new);
+		cacheTodasCategorias = new CacheReactiva<String, List<Categoria>>("categorias.todas", 1, ttlCategorias, 
+				categorias -> categorias.stream().map(Categoria::new).collect(Collectors.toList()));
+	}
+	
 	@Override
 	public Flux<Producto> findAll() {
 		return dao.findAll();
@@ -61,17 +83,23 @@ public class ProductoServiceImpl implements ProductoService {
 
 	@Override
 	public Flux<Categoria> findAllCategoria() {
-		return categoriaDao.findAll();
+		return cacheTodasCategorias.get("todas", k -> categoriaDao.findAll().collectList())
+				.flatMapIterable(categorias -> categorias);
 	}
 
 	@Override
 	public Mono<Categoria> findCategoriaById(String id) {
-		return categoriaDao.findById(id);
+		return cacheCategoriasPorId.get(id, categoriaDao::findById);
 	}
 
 	@Override
 	public Mono<Categoria> saveCategoria(Categoria categoria) {
-		return categoriaDao.save(categoria);
+		return categoriaDao.save(categoria)
+				.doOnTerminate(() -> {
+					// Cualquier cambio invalida las dos caches de categorías
+					cacheCategoriasPorId.invalidarTodo();
+					cacheTodasCategorias.invalidarTodo();
+				});
 	}
 
 }